@@ -17,9 +17,9 @@ var Sockets = NativeModules.TcpSockets;
 
 var Socket = require('./TcpSocket');
 
-function TcpServer(connectionListener: (socket: Socket) => void) {
+function TcpServer(connectionListener: (socket: Socket) => void, options: ?{ queueConnections?: boolean, connectionBatchMs?: number, allowHalfOpen?: boolean }) {
   if (!(this instanceof TcpServer)) {
-    return new TcpServer(connectionListener);
+    return new TcpServer(connectionListener, options);
   }
 
   if (EventEmitter instanceof Function) {
@@ -49,6 +49,9 @@ function TcpServer(connectionListener: (socket: Socket) => void) {
   }
 
   this._connections = 0;
+  this._options = options || {};
+  // like node, set before listen() to close connections past this many open ones
+  this.maxConnections = undefined;
 }
 
 util.inherits(TcpServer, EventEmitter);
@@ -74,7 +77,24 @@ TcpServer.prototype.listen = function() : TcpServer {
   }
 
   this._socket._registerEvents();
-  Sockets.listen(this._socket._id, host, port);
+  var serverOptions = {};
+  if (this.maxConnections !== undefined) {
+    serverOptions.maxConnections = this.maxConnections;
+  }
+  if (this._options.queueConnections !== undefined) {
+    serverOptions.queueConnections = this._options.queueConnections;
+  }
+  if (this._options.connectionBatchMs !== undefined) {
+    serverOptions.connectionBatchMs = this._options.connectionBatchMs;
+  }
+  if (this._options.allowHalfOpen !== undefined) {
+    serverOptions.allowHalfOpen = this._options.allowHalfOpen;
+  }
+  if (Object.keys(serverOptions).length > 0 && typeof Sockets.listenWithOptions === 'function') {
+    Sockets.listenWithOptions(this._socket._id, host, port, serverOptions);
+  } else {
+    Sockets.listen(this._socket._id, host, port);
+  }
 
   return this;
 };
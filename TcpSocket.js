@@ -19,10 +19,21 @@ var stream = require('stream-browserify');
 // var EventEmitter = require('events').EventEmitter;
 var ipRegex = require('ip-regex');
 var {
+  DeviceEventEmitter,
   NativeEventEmitter,
   NativeModules
 } = require('react-native');
 var Sockets = NativeModules.TcpSockets;
+
+// with event batching on, the native side emits many sockets' events as one 'batch' event; replay them one by
+// one, in order, so every socket's listeners see them as if they had been emitted on their own
+if (typeof Sockets.setEventBatching === 'function') {
+  new NativeEventEmitter(Sockets).addListener('batch', function(ev) {
+    ev.events.forEach(function(e) {
+      DeviceEventEmitter.emit(e.type, e.body);
+    });
+  });
+}
 var base64 = require('base64-js');
 var Base64Str = require('./base64-str');
 var noop = function () {};
@@ -120,6 +131,12 @@ TcpSocket.prototype.connect = function(options, callback) : TcpSocket {
     }
   }
 
+  if (options.highWaterMark) {
+    // write() returns false past this mark; native write callbacks only fire once the socket has taken
+    // the data, so the count includes bytes still buffered natively
+    this._writableState.highWaterMark = options.highWaterMark;
+  }
+
   if (options.timeout) {
     this.setTimeout(options.timeout);
   } else if (this._timeout) {
@@ -128,6 +145,13 @@ TcpSocket.prototype.connect = function(options, callback) : TcpSocket {
 
   this._state = STATE.CONNECTING;
 
+  // latin1 text transport, only when the native side knows how to carry it
+  this._latin1 = !!options.latin1 && typeof Sockets.writeLatin1 === 'function';
+
+  // with a read budget the native side pauses reading until delivered bytes are acknowledged
+  this._readBudget = typeof Sockets.ackData === 'function' ? (options.readBudget || 0) : 0;
+  this._unacknowledged = 0;
+
   this._destroyed = false;
   if (this.useSsl) {
     this._debug('connecting TLS, host:', host, 'port:', port);
@@ -170,10 +194,25 @@ TcpSocket.prototype._read = function(n) {
     // not already reading, start the flow
     this._debug('Socket._read resume');
     this._reading = true;
+    this._setNativePaused(false);
     this.resume();
   }
 };
 
+// Stops or restarts reads on the native socket, so a slow consumer pushes back on the peer
+// instead of piling up data events in the bridge.
+TcpSocket.prototype._setNativePaused = function(paused: boolean): void {
+  if (!!this._nativePaused === paused || typeof Sockets.pause !== 'function') {
+    return;
+  }
+  this._nativePaused = paused;
+  if (paused) {
+    Sockets.pause(this._id);
+  } else {
+    Sockets.resume(this._id);
+  }
+};
+
 TcpSocket.prototype._activeTimer = function(msecs, wrapper) {
   if (this._timeout && this._timeout.handle) {
     clearTimeout(this._timeout.handle);
@@ -202,6 +241,23 @@ TcpSocket.prototype._clearTimeout = function() {
 };
 
 TcpSocket.prototype.setTimeout = function(msecs: number, callback: () => void) {
+  if (typeof Sockets.setTimeout === 'function') {
+    // idleness is tracked natively, so reads and writes don't have to reset a js timer
+    if (callback) {
+      if (msecs === 0) {
+        this.removeListener('timeout', callback);
+      } else {
+        this.once('timeout', callback);
+      }
+    }
+
+    this._nativeTimeout = msecs;
+    if (this._state === STATE.CONNECTED) {
+      Sockets.setTimeout(this._id, msecs);
+    }
+    return this;
+  }
+
   if (msecs === 0) {
     this._clearTimeout();
     if (callback) {
@@ -218,31 +274,33 @@ TcpSocket.prototype.setTimeout = function(msecs: number, callback: () => void) {
   return this;
 };
 
+// bytes written but not yet taken by the native socket, like node's socket.bufferSize
+Object.defineProperty(TcpSocket.prototype, 'bufferSize', {
+  get: function() : number {
+    return this._writableState ? this._writableState.length : 0;
+  }
+});
+
 TcpSocket.prototype.address = function() : { port: number, address: string, family: string } {
   return this._address;
 };
 
 TcpSocket.prototype.end = function(data, encoding) {
-  stream.Duplex.prototype.end.call(this, data, encoding);
-  this.writable = false;
-
-  if (this._destroyed) {
-    return;
-  }
-
-  if (data) {
-    this.write(data, encoding);
-  }
-
-  if (this.readable) {
-    this.read(0);
-    this.readable = false;
+  if (!this._destroyed && !this._ending) {
+    this._ending = true;
+    this._debug('ending');
+
+    // writes still buffered here reach the native side before it ends the socket, which then sends
+    // everything it holds before half closing; reading goes on until the peer closes too
+    this.once('finish', () => {
+      if (!this._destroyed) {
+        Sockets.end(this._id);
+      }
+    });
   }
 
-  this._destroyed = true;
-  this._debug('ending');
-
-  Sockets.end(this._id);
+  stream.Duplex.prototype.end.call(this, data, encoding);
+  this.writable = false;
 };
 
 TcpSocket.prototype.destroy = function() {
@@ -273,12 +331,30 @@ TcpSocket.prototype._registerEvents = function(): void {
       }
       this._onConnection(ev.info);
     }),
+    this._eventEmitter.addListener('connections', ev => {
+      if (this._id !== ev.id) {
+        return;
+      }
+      ev.infos.forEach(info => this._onConnection(info));
+    }),
     this._eventEmitter.addListener('data', ev => {
       if (this._id !== ev.id) {
         return;
       }
       this._onData(ev.data);
     }),
+    this._eventEmitter.addListener('message', ev => {
+      if (this._id !== ev.id) {
+        return;
+      }
+      this._onMessage(ev.data);
+    }),
+    this._eventEmitter.addListener('end', ev => {
+      if (this._id !== ev.id) {
+        return;
+      }
+      this._onEnd();
+    }),
     this._eventEmitter.addListener('close', ev => {
       if (this._id !== ev.id) {
         return;
@@ -291,6 +367,31 @@ TcpSocket.prototype._registerEvents = function(): void {
       }
       this._onError(ev.error);
     }),
+    this._eventEmitter.addListener('timeout', ev => {
+      if (this._id !== ev.id) {
+        return;
+      }
+      this._debug('received', 'timeout');
+      this.emit('timeout');
+    }),
+    this._eventEmitter.addListener('fileProgress', ev => {
+      if (this._id !== ev.id) {
+        return;
+      }
+      this.emit('fileProgress', ev.bytesSent, ev.bytesTotal);
+    }),
+    this._eventEmitter.addListener('receiveProgress', ev => {
+      if (this._id !== ev.id) {
+        return;
+      }
+      this.emit('receiveProgress', ev.bytesReceived, ev.bytesTotal);
+    }),
+    this._eventEmitter.addListener('receiveComplete', ev => {
+      if (this._id !== ev.id) {
+        return;
+      }
+      this.emit('receiveComplete', ev.error ? new Error(ev.error) : undefined, ev.bytesReceived);
+    }),
     this._eventEmitter.addListener('secureConnect', ev => {
       if (this._id !== ev.id) {
         return;
@@ -309,6 +410,9 @@ TcpSocket.prototype._onConnect = function(address: { port: number, address: stri
   this._debug('received', 'connect');
 
   setConnected(this, address);
+  if (this._nativeTimeout) {
+    Sockets.setTimeout(this._id, this._nativeTimeout);
+  }
   this.emit('connect');
 
   this.read(0);
@@ -339,16 +443,49 @@ TcpSocket.prototype._onData = function(data: string): void {
     // will prevent this from being called again until _read() gets
     // called again.
 
-    var ret = this.push(Buffer.from(data, 'base64'));
+    var buffer = Buffer.from(data, this._latin1 ? 'latin1' : 'base64');
+    var ret = this.push(buffer);
     if (this._reading && !ret) {
       this._reading = false;
-      this.pause();
+      this._setNativePaused(true);
     }
 
+    this._acknowledge(buffer.length);
     return;
   }
 };
 
+// whole messages from native framing, which bypass the readable stream
+TcpSocket.prototype._onMessage = function(data: string): void {
+  this._debug('received', 'message');
+
+  if (this._timeout) {
+    this._activeTimer(this._timeout.msecs);
+  }
+
+  var buffer = Buffer.from(data, this._latin1 ? 'latin1' : 'base64');
+  this.emit('message', buffer);
+  this._acknowledge(buffer.length);
+};
+
+TcpSocket.prototype._acknowledge = function(length: number): void {
+  if (this._readBudget) {
+    // acknowledge in quarters of the budget to keep the extra bridge traffic low
+    this._unacknowledged += length;
+    if (this._unacknowledged >= this._readBudget / 4) {
+      Sockets.ackData(this._id, this._unacknowledged);
+      this._unacknowledged = 0;
+    }
+  }
+};
+
+// the peer half closed a socket opened with allowHalfOpen; it stays writable until end() is called
+TcpSocket.prototype._onEnd = function(): void {
+  this._debug('received', 'end');
+
+  this.push(null);
+};
+
 TcpSocket.prototype._onClose = function(hadError: boolean): void {
   this._debug('received', 'close');
 
@@ -382,34 +519,123 @@ TcpSocket.prototype._write = function(buffer: any, encoding: ?String, callback:
   callback = callback || noop;
 
   if (this._state === STATE.DISCONNECTED) {
+    if (buffer._file) {
+      buffer._file.done(new Error('Socket is not connected.'));
+    }
     return callback()
     // return callback(new Error('Socket is not connected.'));
   } else if (this._state === STATE.CONNECTING) {
     // we're ok, GCDAsyncSocket handles queueing internally
   }
 
+  if (buffer._file) {
+    if (this._upgrading) {
+      this._upgradeCache.push({ file: buffer._file, callback });
+      return false;
+    }
+    this._sendFileNative(buffer._file, callback);
+    return true;
+  }
+
+  var str = this._encodeChunk(buffer, encoding);
+
+  if (this._upgrading) {
+    self._debug('tls in progress, write added to queue');
+    this._upgradeCache.push({ str, callback })
+    return false;
+  }
+
+  this._writeNative(str, callback);
+
+  return true;
+};
+
+// Called by the writable stream with every chunk buffered while a native write was in flight,
+// so they go out as a single batch instead of one bridge call each.
+if (typeof Sockets.writeBatch === 'function') {
+  TcpSocket.prototype._writev = function(chunks: Array<{ chunk: any, encoding: ?String }>, callback: (err: ?Error) => void): void {
+    var self = this;
+
+    // a file splits the batch; native calls for one socket run in the order they are made, so issuing
+    // every chunk on its own keeps them in place
+    if (chunks.some(entry => entry.chunk._file)) {
+      var remaining = chunks.length;
+      var error;
+      chunks.forEach(function(entry) {
+        self._write(entry.chunk, entry.encoding, function(err) {
+          error = error || err;
+          if (--remaining === 0) {
+            callback(error);
+          }
+        });
+      });
+      return;
+    }
+
+    if (this._state === STATE.DISCONNECTED) {
+      return callback();
+    }
+
+    var strs = chunks.map(function(entry) {
+      return self._encodeChunk(entry.chunk, entry.encoding);
+    });
+
+    if (this._upgrading) {
+      self._debug('tls in progress, batch added to queue');
+      strs.forEach(function(str, i) {
+        self._upgradeCache.push({ str, callback: i === strs.length - 1 ? callback : noop });
+      });
+      return;
+    }
+
+    Sockets.writeBatch(this._id, strs, !!this._latin1, function(err) {
+      if (self._timeout) {
+        self._activeTimer(self._timeout.msecs);
+      }
+
+      err = normalizeError(err);
+      if (err) {
+        self._debug('batch write failed', err);
+        return callback(err);
+      }
+
+      callback();
+    });
+  };
+}
+
+TcpSocket.prototype._encodeChunk = function(buffer: any, encoding: ?String): string {
   var str;
-  if (typeof buffer === 'string') {
-    self._debug('socket.WRITE(): encoding as base64');
+  if (this._latin1) {
+    if (typeof buffer === 'string') {
+      // latin1 strings already are what the bridge carries
+      str = encoding === 'latin1' || encoding === 'binary' ? buffer : Buffer.from(buffer, encoding || 'utf8').toString('latin1');
+    } else if (Buffer.isBuffer(buffer)) {
+      str = buffer.toString('latin1');
+    } else {
+      str = Buffer.from(buffer.buffer, buffer.byteOffset, buffer.byteLength).toString('latin1');
+    }
+  } else if (typeof buffer === 'string') {
+    this._debug('socket.WRITE(): encoding as base64');
     str = Base64Str.encode(buffer);
   } else if (Buffer.isBuffer(buffer)) {
     str = buffer.toString('base64');
   } else if (buffer instanceof Uint8Array) {
-    self._debug('socket.WRITE(): encoding from UInt8Array');
+    this._debug('socket.WRITE(): encoding from UInt8Array');
     str = Base64Str.encode(Utf8ArrayToStr(buffer));
-    self._debug(str);
+    this._debug(str);
   } else {
     throw new TypeError(
       'Invalid data, chunk must be a string or buffer, not ' + typeof buffer);
   }
+  return str;
+};
 
-  if (this._upgrading) {
-    self._debug('tls in progress, write added to queue');
-    this._upgradeCache.push({ str, callback })
-    return false;
-  }
+TcpSocket.prototype._writeNative = function(str: string, callback: (err: ?Error) => void): void {
+  var self = this;
+  var method = this._latin1 ? 'writeLatin1' : 'write';
 
-  Sockets.write(this._id, str, function(err) {
+  Sockets[method](this._id, str, function(err) {
     if (self._timeout) {
       self._activeTimer(self._timeout.msecs);
     }
@@ -422,8 +648,6 @@ TcpSocket.prototype._write = function(buffer: any, encoding: ?String, callback:
 
     callback();
   });
-
-  return true;
 };
 
 function Utf8ArrayToStr(array) {
@@ -473,6 +697,8 @@ function setDisconnected(socket: TcpSocket, hadError: boolean): void {
 
   socket._unregisterEvents();
   socket._state = STATE.DISCONNECTED;
+  // the native side forgets closed sockets, so a later end() or destroy() has nothing to do
+  socket._destroyed = true;
   socket.emit('close', hadError);
 }
 
@@ -522,20 +748,11 @@ TcpSocket.prototype._upgradeToSecure = function(callback) {
       while (this._upgradeCache.length) {
         const cacheElement = this._upgradeCache.shift()
         this._debug('flushing tls cache queue', cacheElement);
-        const self = this;
-        Sockets.write(this._id, cacheElement.str, function (err) {
-          if (self._timeout) {
-            self._activeTimer(self._timeout.msecs);
-          }
-
-          err = normalizeError(err);
-          if (err) {
-            self._debug('write failed', err);
-            return cacheElement.callback(err);
-          }
-
-          cacheElement.callback();
-        });
+        if (cacheElement.file) {
+          this._sendFileNative(cacheElement.file, cacheElement.callback);
+        } else {
+          this._writeNative(cacheElement.str, cacheElement.callback);
+        }
       }
       this._upgrading = false;
       callback();
@@ -544,11 +761,115 @@ TcpSocket.prototype._upgradeToSecure = function(callback) {
   return this;
 }
 
+TcpSocket.prototype.setNoDelay = function(noDelay: ?boolean) : TcpSocket {
+  if (typeof Sockets.setNoDelay === 'function') {
+    if (this._state !== STATE.CONNECTED) {
+      this.once('connect', () => this.setNoDelay(noDelay));
+      return this;
+    }
+    Sockets.setNoDelay(this._id, noDelay === undefined ? true : !!noDelay);
+  }
+  return this;
+};
+
+TcpSocket.prototype.setKeepAlive = function(enable: ?boolean, initialDelay: ?number) : TcpSocket {
+  if (typeof Sockets.setKeepAlive === 'function') {
+    if (this._state !== STATE.CONNECTED) {
+      this.once('connect', () => this.setKeepAlive(enable, initialDelay));
+      return this;
+    }
+    Sockets.setKeepAlive(this._id, !!enable, initialDelay || 0);
+  }
+  return this;
+};
+
+// streams a local file to the socket natively, without it crossing the bridge
+TcpSocket.prototype.sendFile = function(path: string, options: ?{ offset?: number, length?: number }, callback: ?(err: ?Error) => void) : void {
+  if (typeof options === 'function') {
+    callback = options;
+    options = {};
+  }
+  options = options || {};
+  var done = (err: ?Error) => {
+    if (typeof callback === 'function') {
+      callback(err);
+    } else if (err) {
+      this.emit('error', err);
+    }
+  };
+
+  if (typeof Sockets.sendFile !== 'function') {
+    done(new Error('sendFile is not supported on this platform'));
+    return;
+  }
+  if (this._state !== STATE.CONNECTED) {
+    this.once('connect', () => this.sendFile(path, options, callback));
+    return;
+  }
+
+  // the file goes through the writable stream as an empty chunk, so it keeps its place among the writes
+  // around it however they are buffered and batched
+  var chunk = Buffer.alloc(0);
+  chunk._file = {
+    path,
+    offset: options.offset || 0,
+    length: typeof options.length === 'number' ? options.length : -1,
+    done
+  };
+  this.write(chunk);
+};
+
+// the native side holds back writes made after a file until it has been sent, so the stream can go on
+TcpSocket.prototype._sendFileNative = function(file: { path: string, offset: number, length: number, done: (err: ?Error) => void }, callback: (err: ?Error) => void): void {
+  Sockets.sendFile(this._id, file.path, file.offset, file.length, error => file.done(error ? new Error(error) : undefined));
+  callback();
+};
+
+// writes the next inbound bytes, or all of them up to the end of the stream, to a local file natively
+TcpSocket.prototype.receiveToFile = function(path: string, options: ?{ length?: number, append?: boolean }, callback: ?(err: ?Error, bytesReceived: number) => void) : void {
+  if (typeof options === 'function') {
+    callback = options;
+    options = {};
+  }
+  options = options || {};
+
+  if (typeof Sockets.receiveToFile !== 'function') {
+    var error = new Error('receiveToFile is not supported on this platform');
+    if (typeof callback === 'function') {
+      callback(error, 0);
+    } else {
+      this.emit('error', error);
+    }
+    return;
+  }
+  if (this._state !== STATE.CONNECTED) {
+    this.once('connect', () => this.receiveToFile(path, options, callback));
+    return;
+  }
+
+  if (typeof callback === 'function') {
+    this.once('receiveComplete', callback);
+  }
+  var length = typeof options.length === 'number' ? options.length : -1;
+  Sockets.receiveToFile(this._id, path, length, !!options.append);
+};
+
+// splits inbound data natively into 'message' events; pass null to go back to 'data' events
+TcpSocket.prototype.setFraming = function(options: ?{ framing: string, lengthBytes?: number, littleEndian?: boolean, delimiter?: string, frameSize?: number, maxMessageSize?: number }) : TcpSocket {
+  if (typeof Sockets.setFraming !== 'function') {
+    throw new Error('native framing is not supported on this platform');
+  }
+  if (this._state !== STATE.CONNECTED) {
+    this.once('connect', () => this.setFraming(options));
+    return this;
+  }
+  Sockets.setFraming(this._id, options || {});
+  return this;
+};
+
 // unimplemented net.Socket apis
 TcpSocket.prototype.ref =
 TcpSocket.prototype.unref =
-TcpSocket.prototype.setNoDelay =
-TcpSocket.prototype.setKeepAlive =
 TcpSocket.prototype.setEncoding = function() { /* nop */ };
 
 module.exports = TcpSocket;
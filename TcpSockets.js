@@ -17,7 +17,7 @@ exports.createServer = function(opts: any, connectionListener: (socket: Socket)
   if (typeof opts === 'function' && !connectionListener) {
     return new Server(opts);
   }
-  return new Server(connectionListener);
+  return new Server(connectionListener, opts);
 };
 
 // TODO : determine how to properly overload this with flow
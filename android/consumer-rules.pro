@@ -0,0 +1,4 @@
+# TlsSink reads the records AsyncSSLSocketWrapper hasn't sent yet through this field
+-keepclassmembers class com.koushikdutta.async.AsyncSSLSocketWrapper {
+    com.koushikdutta.async.BufferedDataSink mSink;
+}
@@ -0,0 +1,81 @@
+package com.peel.react;
+
+import android.os.SystemClock;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.facebook.react.bridge.JavaOnlyMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Which ended sockets {@link TcpSocketManager} hands to the next connect, against a loopback echo server.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ConnectionPoolTest {
+    private final EchoServer mEchoServer = new EchoServer();
+    private final LoopbackListener mListener = new LoopbackListener();
+    private TcpSocketManager mManager;
+    private int mPort;
+
+    @Before
+    public void setUp() throws Exception {
+        mPort = mEchoServer.start();
+        mManager = new TcpSocketManager(mListener, 1);
+    }
+
+    @After
+    public void tearDown() {
+        mManager.closeAllSockets();
+        mEchoServer.stop();
+    }
+
+    @Test
+    public void socketEndedMidFrameIsNotReused() throws Exception {
+        TcpSocketOptions options = TcpSocketOptions.fromReadableMap(JavaOnlyMap.of("pool", true, "framing", "length"));
+        mManager.connect(1, "127.0.0.1", mPort, false, options);
+        mListener.awaitConnected();
+
+        // a 10 byte message of which only 2 bytes arrive
+        mManager.write(1, new byte[] { 0, 0, 0, 10, 'a', 'b' }, null);
+        awaitBytesIn(1, 6);
+        mManager.end(1);
+        mListener.awaitClosed();
+
+        mManager.connect(2, "127.0.0.1", mPort, false, options);
+        mListener.awaitConnected();
+        assertEquals(0, mManager.getMetrics().poolHits.get());
+        assertEquals(2, mManager.getMetrics().poolMisses.get());
+    }
+
+    @Test
+    public void socketEndedBetweenFramesIsReused() throws Exception {
+        TcpSocketOptions options = TcpSocketOptions.fromReadableMap(JavaOnlyMap.of("pool", true, "framing", "length"));
+        mManager.connect(1, "127.0.0.1", mPort, false, options);
+        mListener.awaitConnected();
+
+        mManager.write(1, new byte[] { 0, 0, 0, 2, 'a', 'b' }, null);
+        mListener.awaitReceived(2);
+        mManager.end(1);
+        mListener.awaitClosed();
+
+        mManager.connect(2, "127.0.0.1", mPort, false, options);
+        mListener.awaitConnected();
+        assertEquals(1, mManager.getMetrics().poolHits.get());
+    }
+
+    private void awaitBytesIn(Integer cId, long bytes) {
+        long deadline = SystemClock.uptimeMillis() + 5000;
+        while (mManager.getSocketStats(cId).bytesIn < bytes) {
+            if (SystemClock.uptimeMillis() > deadline) {
+                throw new IllegalStateException("echo stalled");
+            }
+            SystemClock.sleep(10);
+        }
+    }
+}
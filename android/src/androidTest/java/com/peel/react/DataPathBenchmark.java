@@ -0,0 +1,124 @@
+package com.peel.react;
+
+import android.util.Base64;
+
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.benchmark.BenchmarkState;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.facebook.react.bridge.JavaOnlyMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+
+/**
+ * Round trips through {@link TcpSocketManager#write} and the socket's data callback against a loopback echo server,
+ * including the string conversions js traffic goes through on the way in and out.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DataPathBenchmark {
+    private static final Integer BASE64_ID = 1;
+    private static final Integer LATIN1_ID = 2;
+    private static final Integer MISSING_ID = 3;
+
+    @Rule
+    public BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+    private final EchoServer mEchoServer = new EchoServer();
+    private final LoopbackListener mBase64Listener = new LoopbackListener();
+    private final LoopbackListener mLatin1Listener = new LoopbackListener();
+    private TcpSocketManager mBase64Manager;
+    private TcpSocketManager mLatin1Manager;
+
+    @Before
+    public void setUp() throws Exception {
+        int port = mEchoServer.start();
+
+        mBase64Manager = new TcpSocketManager(mBase64Listener, 1);
+        mBase64Manager.connect(BASE64_ID, "127.0.0.1", port, false, TcpSocketOptions.DEFAULT);
+        mBase64Listener.awaitConnected();
+
+        mLatin1Manager = new TcpSocketManager(mLatin1Listener, 1);
+        mLatin1Manager.connect(LATIN1_ID, "127.0.0.1", port, false,
+                TcpSocketOptions.fromReadableMap(JavaOnlyMap.of("latin1", true)));
+        mLatin1Listener.awaitConnected();
+    }
+
+    @After
+    public void tearDown() {
+        mBase64Manager.closeAllSockets();
+        mLatin1Manager.closeAllSockets();
+        mEchoServer.stop();
+    }
+
+    @Test
+    public void echoBase64_1K() throws Exception {
+        echoBase64(1024);
+    }
+
+    @Test
+    public void echoBase64_64K() throws Exception {
+        echoBase64(64 * 1024);
+    }
+
+    @Test
+    public void echoLatin1_1K() throws Exception {
+        echoLatin1(1024);
+    }
+
+    @Test
+    public void echoLatin1_64K() throws Exception {
+        echoLatin1(64 * 1024);
+    }
+
+    @Test
+    public void registryLookup() {
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            mBase64Manager.getBufferSize(BASE64_ID);
+        }
+    }
+
+    @Test
+    public void registryLookupMissing() {
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            mBase64Manager.getBufferSize(MISSING_ID);
+        }
+    }
+
+    private void echoBase64(int size) throws Exception {
+        String payload = Base64.encodeToString(randomBytes(size), Base64.NO_WRAP);
+        long expected = mBase64Listener.getReceived();
+
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            mBase64Manager.write(BASE64_ID, Base64.decode(payload, Base64.NO_WRAP), null);
+            expected += size;
+            mBase64Listener.awaitReceived(expected);
+        }
+    }
+
+    private void echoLatin1(int size) throws Exception {
+        String payload = new String(randomBytes(size), TcpSockets.LATIN1);
+        long expected = mLatin1Listener.getReceived();
+
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            mLatin1Manager.write(LATIN1_ID, payload.getBytes(TcpSockets.LATIN1), null);
+            expected += size;
+            mLatin1Listener.awaitReceived(expected);
+        }
+    }
+
+    static byte[] randomBytes(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+}
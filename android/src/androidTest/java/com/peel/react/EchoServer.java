@@ -0,0 +1,57 @@
+package com.peel.react;
+
+import com.koushikdutta.async.AsyncServer;
+import com.koushikdutta.async.AsyncServerSocket;
+import com.koushikdutta.async.AsyncSocket;
+import com.koushikdutta.async.Util;
+import com.koushikdutta.async.callback.CompletedCallback;
+import com.koushikdutta.async.callback.ListenCallback;
+
+import java.net.InetAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A loopback server on its own reactor that writes back everything it reads, and closes once its peer ends.
+ */
+final class EchoServer {
+    private final AsyncServer mServer = new AsyncServer("TcpSockets-echo");
+    private volatile AsyncServerSocket mSocket;
+
+    /**
+     * @return the port the server listens on
+     */
+    int start() throws Exception {
+        final CountDownLatch listening = new CountDownLatch(1);
+        mServer.listen(InetAddress.getByName("127.0.0.1"), 0, new ListenCallback() {
+            @Override
+            public void onListening(AsyncServerSocket socket) {
+                mSocket = socket;
+                listening.countDown();
+            }
+
+            @Override
+            public void onAccepted(final AsyncSocket socket) {
+                Util.pump(socket, socket, new CompletedCallback() {
+                    @Override
+                    public void onCompleted(Exception ex) {
+                        socket.close();
+                    }
+                });
+            }
+
+            @Override
+            public void onCompleted(Exception ex) {
+            }
+        });
+
+        if (!listening.await(5, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("echo server did not start");
+        }
+        return mSocket.getLocalPort();
+    }
+
+    void stop() {
+        mServer.stop();
+    }
+}
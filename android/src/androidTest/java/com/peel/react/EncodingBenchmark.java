@@ -0,0 +1,83 @@
+package com.peel.react;
+
+import android.util.Base64;
+
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.benchmark.BenchmarkState;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.facebook.react.bridge.JavaOnlyMap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * The conversions a 16KB chunk goes through between the socket and js, base64 against the latin1
+ * transport, and building the data event around it.
+ */
+@RunWith(AndroidJUnit4.class)
+public class EncodingBenchmark {
+    private static final int SIZE = 16 * 1024;
+
+    @Rule
+    public BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+    private final byte[] mData = DataPathBenchmark.randomBytes(SIZE);
+    private final String mBase64 = Base64.encodeToString(mData, Base64.NO_WRAP);
+    private final String mLatin1 = new String(mData, TcpSockets.LATIN1);
+
+    @Test
+    public void base64Encode() {
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            TcpSockets.encodeBase64(mData, SIZE);
+        }
+    }
+
+    @Test
+    public void base64EncodePlatform() {
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            Base64.encodeToString(mData, 0, SIZE, Base64.NO_WRAP);
+        }
+    }
+
+    @Test
+    public void base64Decode() {
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            Base64.decode(mBase64, Base64.NO_WRAP);
+        }
+    }
+
+    @Test
+    public void latin1Encode() {
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            new String(mData, 0, SIZE, TcpSockets.LATIN1);
+        }
+    }
+
+    @Test
+    public void latin1Decode() {
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            mLatin1.getBytes(TcpSockets.LATIN1);
+        }
+    }
+
+    /**
+     * onData builds a native backed map, which needs the react native libraries loaded; the java only map
+     * stands in for it to measure the event's construction.
+     */
+    @Test
+    public void dataEvent() {
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            JavaOnlyMap eventParams = new JavaOnlyMap();
+            eventParams.putInt("id", 1);
+            eventParams.putString("data", TcpSockets.encodeBase64(mData, SIZE));
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.peel.react;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts what a {@link TcpSocketManager} delivers, encoding data the way {@link TcpSockets#onData} does before
+ * it builds the event.
+ */
+final class LoopbackListener implements TcpSocketListener {
+    private final Semaphore mConnected = new Semaphore(0);
+    private final Semaphore mClosed = new Semaphore(0);
+    private final Object mLock = new Object();
+    private long mReceived;
+    private String mError;
+
+    // keeps the encoded strings reachable so the encoding can't be optimized away
+    volatile String lastData;
+
+    /**
+     * Waits for the next connect that hasn't been waited for yet.
+     */
+    void awaitConnected() throws InterruptedException {
+        if (!mConnected.tryAcquire(5, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("unable to connect to the echo server");
+        }
+    }
+
+    /**
+     * Waits for the next close that hasn't been waited for yet, including sockets going back to the pool.
+     */
+    void awaitClosed() throws InterruptedException {
+        if (!mClosed.tryAcquire(5, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("socket did not close");
+        }
+    }
+
+    long getReceived() {
+        synchronized (mLock) {
+            return mReceived;
+        }
+    }
+
+    void awaitReceived(long total) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        synchronized (mLock) {
+            while (mReceived < total) {
+                if (mError != null) {
+                    throw new IllegalStateException(mError);
+                }
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    throw new IllegalStateException("echo stalled at " + mReceived + " of " + total + " bytes");
+                }
+                mLock.wait(remaining);
+            }
+        }
+    }
+
+    @Override
+    public void onConnection(Integer serverId, Integer clientId, InetSocketAddress socketAddress) {
+    }
+
+    @Override
+    public void onConnections(Integer serverId, List<Integer> clientIds, List<InetSocketAddress> socketAddresses) {
+    }
+
+    @Override
+    public void onSecureConnect(Integer id) {
+    }
+
+    @Override
+    public void onConnect(Integer id, InetSocketAddress socketAddress) {
+        mConnected.release();
+    }
+
+    @Override
+    public void onData(Integer id, byte[] data, int length, boolean latin1) {
+        lastData = latin1 ? new String(data, 0, length, TcpSockets.LATIN1) : TcpSockets.encodeBase64(data, length);
+        synchronized (mLock) {
+            mReceived += length;
+            mLock.notifyAll();
+        }
+    }
+
+    @Override
+    public void onMessage(Integer id, byte[] data, int length, boolean latin1) {
+        onData(id, data, length, latin1);
+    }
+
+    @Override
+    public void onFileProgress(Integer id, long bytesSent, long bytesTotal) {
+    }
+
+    @Override
+    public void onReceiveProgress(Integer id, long bytesReceived, long bytesTotal) {
+    }
+
+    @Override
+    public void onReceiveComplete(Integer id, long bytesReceived, String error) {
+    }
+
+    @Override
+    public void onTimeout(Integer id) {
+    }
+
+    @Override
+    public void onEnd(Integer id) {
+    }
+
+    @Override
+    public void onStats() {
+    }
+
+    @Override
+    public void onClose(Integer id, String error) {
+        mClosed.release();
+    }
+
+    @Override
+    public void onError(Integer id, String error) {
+        synchronized (mLock) {
+            mError = "socket " + id + ": " + error;
+            mLock.notifyAll();
+        }
+    }
+}
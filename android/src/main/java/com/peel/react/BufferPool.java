@@ -0,0 +1,62 @@
+package com.peel.react;
+
+/**
+ * A bounded pool of equally sized byte arrays, used to copy inbound data out of the reactor's buffers without
+ * allocating a new array per chunk.
+ *
+ * Requests larger than the pooled size fall back to a fresh array of the exact size. Hits and misses are
+ * counted so the pool can be sized for the traffic it sees.
+ */
+final class BufferPool {
+    private final int mBufferSize;
+    private final byte[][] mFree;
+    private int mFreeCount;
+
+    private long mHits;
+    private long mMisses;
+
+    BufferPool(int bufferSize, int maxBuffers) {
+        mBufferSize = bufferSize;
+        mFree = new byte[maxBuffers][];
+    }
+
+    /**
+     * @return an array of at least length bytes; hand it back with {@link #release} once it is no longer used
+     */
+    synchronized byte[] acquire(int length) {
+        if (length <= mBufferSize) {
+            if (mFreeCount > 0) {
+                mHits++;
+                byte[] buffer = mFree[--mFreeCount];
+                mFree[mFreeCount] = null;
+                return buffer;
+            }
+            mMisses++;
+            return new byte[mBufferSize];
+        }
+        mMisses++;
+        return new byte[length];
+    }
+
+    synchronized void release(byte[] buffer) {
+        if (buffer.length == mBufferSize && mFreeCount < mFree.length) {
+            mFree[mFreeCount++] = buffer;
+        }
+    }
+
+    int getBufferSize() {
+        return mBufferSize;
+    }
+
+    int getMaxBuffers() {
+        return mFree.length;
+    }
+
+    synchronized long getHits() {
+        return mHits;
+    }
+
+    synchronized long getMisses() {
+        return mMisses;
+    }
+}
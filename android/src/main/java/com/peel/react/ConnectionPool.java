@@ -0,0 +1,102 @@
+package com.peel.react;
+
+import androidx.annotation.Nullable;
+
+import com.koushikdutta.async.AsyncSocket;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Idle client sockets kept open for reuse, keyed by host, port and tls configuration.
+ *
+ * The pool only does the bookkeeping; {@link TcpSocketManager} decides when a socket may be returned, watches
+ * it while it is idle and evicts it on timeout.
+ */
+final class ConnectionPool {
+    static final class Entry {
+        final String key;
+        final AsyncSocket socket;
+
+        Entry(String key, AsyncSocket socket) {
+            this.key = key;
+            this.socket = socket;
+        }
+    }
+
+    private final HashMap<String, ArrayDeque<Entry>> mIdle = new HashMap<String, ArrayDeque<Entry>>();
+    private int mSize;
+
+    static String key(String host, int port, boolean useTls, boolean rejectUnauthorized) {
+        return host + ":" + port + (useTls ? rejectUnauthorized ? ":tls" : ":tls-trust-all" : "");
+    }
+
+    /**
+     * @return the most recently returned socket that is still open, or null if there is none
+     */
+    @Nullable
+    synchronized AsyncSocket checkout(String key) {
+        ArrayDeque<Entry> idle = mIdle.get(key);
+        while (idle != null && !idle.isEmpty()) {
+            Entry entry = idle.pollLast();
+            mSize--;
+            if (entry.socket.isOpen()) {
+                return entry.socket;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the pooled entry, or null if the key already holds maxIdle sockets
+     */
+    @Nullable
+    synchronized Entry add(String key, AsyncSocket socket, int maxIdle) {
+        ArrayDeque<Entry> idle = mIdle.get(key);
+        if (idle == null) {
+            idle = new ArrayDeque<Entry>();
+            mIdle.put(key, idle);
+        }
+        if (idle.size() >= maxIdle) {
+            return null;
+        }
+
+        Entry entry = new Entry(key, socket);
+        idle.addLast(entry);
+        mSize++;
+        return entry;
+    }
+
+    /**
+     * @return true if the entry was still idle in the pool, false if it had already been checked out or removed
+     */
+    synchronized boolean remove(Entry entry) {
+        ArrayDeque<Entry> idle = mIdle.get(entry.key);
+        if (idle == null || !idle.remove(entry)) {
+            return false;
+        }
+        mSize--;
+        if (idle.isEmpty()) {
+            mIdle.remove(entry.key);
+        }
+        return true;
+    }
+
+    synchronized List<AsyncSocket> clear() {
+        List<AsyncSocket> sockets = new ArrayList<AsyncSocket>(mSize);
+        for (ArrayDeque<Entry> idle : mIdle.values()) {
+            for (Entry entry : idle) {
+                sockets.add(entry.socket);
+            }
+        }
+        mIdle.clear();
+        mSize = 0;
+        return sockets;
+    }
+
+    synchronized int size() {
+        return mSize;
+    }
+}
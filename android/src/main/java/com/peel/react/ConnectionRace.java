@@ -0,0 +1,163 @@
+package com.peel.react;
+
+import androidx.annotation.Nullable;
+
+import com.koushikdutta.async.AsyncServer;
+import com.koushikdutta.async.AsyncSocket;
+import com.koushikdutta.async.callback.ConnectCallback;
+import com.koushikdutta.async.future.Cancellable;
+
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Connects to the first reachable address of a host, happy eyeballs style (RFC 8305).
+ *
+ * Addresses are tried with alternating families, IPv6 first. Each attempt gets a head start of the attempt
+ * delay before the next one begins, and a failed attempt starts the next one right away. The first socket to
+ * connect wins, and every other attempt is cancelled or closed. All state is confined to the reactor thread.
+ */
+final class ConnectionRace implements Cancellable {
+    interface Callback {
+        void onCompleted(@Nullable Exception ex, @Nullable AsyncSocket socket, InetSocketAddress address);
+    }
+
+    private final AsyncServer mServer;
+    private final List<InetSocketAddress> mAddresses;
+    private final long mAttemptDelay;
+    private final Callback mCallback;
+
+    private final List<Cancellable> mAttempts = new ArrayList<Cancellable>();
+    private int mNext;
+    private int mFailed;
+    private Exception mLastError;
+    private Object mPendingAttempt;
+    private boolean mDone;
+    private boolean mCancelled;
+
+    ConnectionRace(AsyncServer server, List<InetSocketAddress> addresses, long attemptDelay, Callback callback) {
+        mServer = server;
+        mAddresses = addresses;
+        mAttemptDelay = attemptDelay;
+        mCallback = callback;
+    }
+
+    /**
+     * Orders addresses for racing: alternating families, starting with IPv6 when the host has any.
+     */
+    static List<InetSocketAddress> interleave(InetAddress[] addresses, int port) {
+        List<InetAddress> v6 = new ArrayList<InetAddress>();
+        List<InetAddress> v4 = new ArrayList<InetAddress>();
+        for (InetAddress address : addresses) {
+            (address instanceof Inet6Address ? v6 : v4).add(address);
+        }
+
+        List<InetSocketAddress> ordered = new ArrayList<InetSocketAddress>(addresses.length);
+        for (int i = 0; i < Math.max(v6.size(), v4.size()); i++) {
+            if (i < v6.size()) {
+                ordered.add(new InetSocketAddress(v6.get(i), port));
+            }
+            if (i < v4.size()) {
+                ordered.add(new InetSocketAddress(v4.get(i), port));
+            }
+        }
+        return ordered;
+    }
+
+    void start() {
+        mServer.post(new Runnable() {
+            @Override
+            public void run() {
+                startNextAttempt();
+            }
+        });
+    }
+
+    private void startNextAttempt() {
+        mPendingAttempt = null;
+        if (mDone || mNext >= mAddresses.size()) {
+            return;
+        }
+
+        final InetSocketAddress address = mAddresses.get(mNext++);
+        mAttempts.add(mServer.connectSocket(address, new ConnectCallback() {
+            @Override
+            public void onConnectCompleted(Exception ex, AsyncSocket socket) {
+                onAttemptCompleted(ex, socket, address);
+            }
+        }));
+
+        if (mNext < mAddresses.size()) {
+            mPendingAttempt = mServer.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    startNextAttempt();
+                }
+            }, mAttemptDelay);
+        }
+    }
+
+    private void onAttemptCompleted(Exception ex, AsyncSocket socket, InetSocketAddress address) {
+        if (mDone) {
+            // lost the race
+            if (socket != null) {
+                socket.close();
+            }
+            return;
+        }
+
+        if (ex == null) {
+            finish();
+            mCallback.onCompleted(null, socket, address);
+            return;
+        }
+
+        mFailed++;
+        mLastError = ex;
+        if (mNext < mAddresses.size()) {
+            // don't wait out the delay once an attempt has failed
+            mServer.removeAllCallbacks(mPendingAttempt);
+            startNextAttempt();
+        } else if (mFailed == mAddresses.size()) {
+            finish();
+            mCallback.onCompleted(mLastError, null, address);
+        }
+    }
+
+    private void finish() {
+        mDone = true;
+        if (mPendingAttempt != null) {
+            mServer.removeAllCallbacks(mPendingAttempt);
+            mPendingAttempt = null;
+        }
+        for (Cancellable attempt : mAttempts) {
+            attempt.cancel();
+        }
+    }
+
+    /**
+     * Abandons the race. Must be called on the reactor thread; once cancelled, the callback is never called.
+     */
+    @Override
+    public boolean cancel() {
+        if (mDone) {
+            return false;
+        }
+        finish();
+        mCancelled = true;
+        return true;
+    }
+
+    @Override
+    public boolean isDone() {
+        return mDone;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+}
@@ -0,0 +1,132 @@
+package com.peel.react;
+
+import androidx.annotation.Nullable;
+import android.os.SystemClock;
+
+import com.koushikdutta.async.AsyncServer;
+import com.koushikdutta.async.future.FutureCallback;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Resolves host names off the calling thread, through {@link AsyncServer#getAllByName}, with an in-memory cache.
+ *
+ * Successful lookups are cached for the positive ttl and failures for the negative ttl. Concurrent lookups of
+ * the same host share one resolution, so a burst of connects to one host only queries once.
+ */
+final class DnsResolver {
+    interface Callback {
+        void onResolved(@Nullable Exception ex, @Nullable InetAddress[] addresses);
+    }
+
+    private static final int MAX_ENTRIES = 256;
+
+    private final AsyncServer mServer;
+    private volatile long mTtl;
+    private volatile long mNegativeTtl;
+
+    // both guarded by this
+    private final HashMap<String, Entry> mCache = new HashMap<String, Entry>();
+    private final HashMap<String, List<Callback>> mInFlight = new HashMap<String, List<Callback>>();
+
+    DnsResolver(AsyncServer server, long ttl, long negativeTtl) {
+        mServer = server;
+        mTtl = ttl;
+        mNegativeTtl = negativeTtl;
+    }
+
+    void setTtl(long ttl, long negativeTtl) {
+        mTtl = ttl;
+        mNegativeTtl = negativeTtl;
+        synchronized (this) {
+            mCache.clear();
+        }
+    }
+
+    /**
+     * Calls back with every address of the host, either right away from the cache or on the reactor thread.
+     */
+    void resolve(final String host, Callback callback) {
+        Entry cached;
+        synchronized (this) {
+            cached = mCache.get(host);
+            if (cached != null && cached.expiresAt <= SystemClock.elapsedRealtime()) {
+                mCache.remove(host);
+                cached = null;
+            }
+
+            if (cached == null) {
+                List<Callback> waiting = mInFlight.get(host);
+                if (waiting != null) {
+                    waiting.add(callback);
+                    return;
+                }
+                waiting = new ArrayList<Callback>();
+                waiting.add(callback);
+                mInFlight.put(host, waiting);
+            }
+        }
+
+        if (cached != null) {
+            callback.onResolved(cached.error, cached.addresses);
+            return;
+        }
+
+        mServer.getAllByName(host).setCallback(new FutureCallback<InetAddress[]>() {
+            @Override
+            public void onCompleted(Exception ex, InetAddress[] addresses) {
+                if (ex == null && (addresses == null || addresses.length == 0)) {
+                    ex = new UnknownHostException(host);
+                }
+
+                List<Callback> waiting;
+                synchronized (DnsResolver.this) {
+                    long ttl = ex == null ? mTtl : mNegativeTtl;
+                    if (ttl > 0) {
+                        if (mCache.size() >= MAX_ENTRIES) {
+                            evictExpired();
+                        }
+                        if (mCache.size() < MAX_ENTRIES) {
+                            mCache.put(host, new Entry(ex == null ? addresses : null, ex,
+                                    SystemClock.elapsedRealtime() + ttl));
+                        }
+                    }
+                    waiting = mInFlight.remove(host);
+                }
+
+                if (waiting != null) {
+                    for (Callback callback : waiting) {
+                        callback.onResolved(ex, ex == null ? addresses : null);
+                    }
+                }
+            }
+        });
+    }
+
+    private void evictExpired() {
+        long now = SystemClock.elapsedRealtime();
+        for (Iterator<Map.Entry<String, Entry>> it = mCache.entrySet().iterator(); it.hasNext();) {
+            if (it.next().getValue().expiresAt <= now) {
+                it.remove();
+            }
+        }
+    }
+
+    private static final class Entry {
+        final InetAddress[] addresses;
+        final Exception error;
+        final long expiresAt;
+
+        Entry(InetAddress[] addresses, Exception error, long expiresAt) {
+            this.addresses = addresses;
+            this.error = error;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.peel.react;
+
+import com.koushikdutta.async.ByteBufferList;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes a socket's inbound bytes to a file instead of delivering them to js. Only touched on the socket's
+ * reactor thread once created.
+ */
+final class FileReceiver {
+    private final FileChannel mFile;
+    // bytes still to go, or -1 to keep going until the peer ends the stream
+    private long mRemaining;
+    private final long mLength;
+    private long mReceived;
+
+    long lastProgress;
+
+    FileReceiver(FileChannel file, long length) {
+        mFile = file;
+        mLength = length;
+        mRemaining = length;
+    }
+
+    /**
+     * @return the byte count asked for, or -1 if the file takes everything up to the end of the stream
+     */
+    long getLength() {
+        return mLength;
+    }
+
+    long getBytesReceived() {
+        return mReceived;
+    }
+
+    boolean isDone() {
+        return mRemaining == 0;
+    }
+
+    /**
+     * Moves as much of bb into the file as it still takes, leaving the rest in bb.
+     */
+    void receive(ByteBufferList bb) throws IOException {
+        int length = mRemaining < 0 ? bb.remaining() : (int) Math.min(mRemaining, bb.remaining());
+        ByteBufferList part = length == bb.remaining() ? bb : bb.get(length);
+
+        // one gathering write for all of the reactor's buffers
+        ByteBuffer[] buffers = part.getAllArray();
+        long written = 0;
+        while (written < length) {
+            written += mFile.write(buffers);
+        }
+        for (ByteBuffer buffer : buffers) {
+            ByteBufferList.reclaim(buffer);
+        }
+
+        mReceived += length;
+        if (mRemaining > 0) {
+            mRemaining -= length;
+        }
+    }
+
+    void close() throws IOException {
+        mFile.close();
+    }
+}
@@ -0,0 +1,127 @@
+package com.peel.react;
+
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.Callback;
+import com.koushikdutta.async.AsyncSocket;
+import com.koushikdutta.async.ByteBufferList;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Streams a range of a file to a socket without it passing through js. Only touched on the socket's reactor
+ * thread once created.
+ *
+ * Plain sockets are written with {@link FileChannel#transferTo}, which lets the kernel copy straight from the
+ * page cache. Otherwise, and whenever the socket is full, a chunk is read into one of AndroidAsync's pooled
+ * buffers and written the usual way, so the socket's writeable callback picks the transfer up again. Sockets
+ * with compression get every chunk compressed on the way.
+ */
+final class FileSender {
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    final Callback callback;
+
+    private final FileChannel mFile;
+    private final long mLength;
+    private final long mEnd;
+    private long mPosition;
+    @Nullable private final WritableByteChannel mDirect;
+    @Nullable private final StreamCompressor mCompressor;
+    // what the socket hasn't taken yet, and how many bytes of the file it holds
+    private final ByteBufferList mBuffer = new ByteBufferList();
+    private long mBufferedFileBytes;
+    private final ByteBufferList mRead = new ByteBufferList();
+
+    long lastProgress;
+
+    /**
+     * @param direct the socket's own channel when nothing wraps it, for {@link FileChannel#transferTo}
+     * @param compressor the socket's compressor, which every chunk goes through, if it has one
+     */
+    FileSender(FileChannel file, long offset, long length, @Nullable WritableByteChannel direct,
+            @Nullable StreamCompressor compressor, @Nullable Callback callback) {
+        mFile = file;
+        mPosition = offset;
+        mLength = length;
+        mEnd = offset + length;
+        mDirect = direct;
+        mCompressor = compressor;
+        this.callback = callback;
+    }
+
+    long getLength() {
+        return mLength;
+    }
+
+    /**
+     * @return bytes the socket has taken so far
+     */
+    long getBytesSent() {
+        return mLength - (mEnd - mPosition) - mBufferedFileBytes;
+    }
+
+    /**
+     * Writes as much as the socket takes right now.
+     *
+     * @return true once the socket has taken the whole range
+     */
+    boolean send(AsyncSocket socket) throws IOException {
+        while (true) {
+            if (mBuffer.hasRemaining()) {
+                socket.write(mBuffer);
+                if (mBuffer.hasRemaining()) {
+                    if (mCompressor == null) {
+                        mBufferedFileBytes = mBuffer.remaining();
+                    }
+                    return false;
+                }
+                mBufferedFileBytes = 0;
+            }
+            if (mPosition >= mEnd) {
+                return true;
+            }
+
+            int chunk = (int) Math.min(CHUNK_SIZE, mEnd - mPosition);
+            if (mDirect != null) {
+                long written = mFile.transferTo(mPosition, chunk, mDirect);
+                if (written > 0) {
+                    mPosition += written;
+                    continue;
+                }
+                // the socket is full; buffering the next chunk gets a writeable callback once it has room
+            }
+
+            ByteBuffer buffer = ByteBufferList.obtain(chunk);
+            buffer.clear();
+            buffer.limit(chunk);
+            int read = mFile.read(buffer, mPosition);
+            if (read < 0) {
+                ByteBufferList.reclaim(buffer);
+                throw new EOFException("file ended " + (mEnd - mPosition) + " bytes early");
+            }
+            buffer.flip();
+            mPosition += read;
+            mBufferedFileBytes = read;
+            if (mCompressor != null) {
+                mRead.add(buffer);
+                mCompressor.deflate(mRead, mBuffer);
+            } else {
+                mBuffer.add(buffer);
+            }
+        }
+    }
+
+    void close() {
+        mBuffer.recycle();
+        try {
+            mFile.close();
+        } catch (IOException ioe) {
+            // only ever read from, so there is nothing to lose
+        }
+    }
+}
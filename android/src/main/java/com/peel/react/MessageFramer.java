@@ -0,0 +1,225 @@
+package com.peel.react;
+
+import androidx.annotation.Nullable;
+
+import com.koushikdutta.async.ByteBufferList;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Splits a socket's inbound bytes into messages: length prefixed, delimited or fixed size. Only touched on the
+ * socket's reactor thread.
+ *
+ * Chunks are kept as the reactor's own buffers and parsed where they are, so a message split over many reads is
+ * only copied once, into the array it is delivered in. Delimiters are scanned for once per byte, however many
+ * reads a message takes to arrive.
+ */
+final class MessageFramer {
+    static final String LENGTH = "length";
+    static final String DELIMITER = "delimiter";
+    static final String FIXED = "fixed";
+
+    private final String mMode;
+    private final int mLengthBytes;
+    private final boolean mLittleEndian;
+    private final byte[] mDelimiter;
+    private final int mFrameSize;
+    private final int mMaxMessageSize;
+
+    private final ArrayDeque<ByteBuffer> mBuffers = new ArrayDeque<ByteBuffer>();
+    private int mBuffered;
+    // bytes already searched for a delimiter without finding one
+    private int mScanned;
+
+    private MessageFramer(String mode, int lengthBytes, boolean littleEndian, byte[] delimiter, int frameSize,
+            int maxMessageSize) {
+        mMode = mode;
+        mLengthBytes = lengthBytes;
+        mLittleEndian = littleEndian;
+        mDelimiter = delimiter;
+        mFrameSize = frameSize;
+        mMaxMessageSize = maxMessageSize;
+    }
+
+    /**
+     * @return a framer for the socket's framing options, or null if it has none
+     * @throws IllegalArgumentException if the options don't describe a valid framing
+     */
+    @Nullable
+    static MessageFramer create(TcpSocketOptions options) {
+        if (options.framing == null) {
+            return null;
+        }
+
+        if (LENGTH.equals(options.framing)) {
+            int lengthBytes = options.lengthBytes;
+            if (lengthBytes != 1 && lengthBytes != 2 && lengthBytes != 4 && lengthBytes != 8) {
+                throw new IllegalArgumentException("lengthBytes must be 1, 2, 4 or 8, not " + lengthBytes);
+            }
+        } else if (DELIMITER.equals(options.framing)) {
+            if (options.delimiter.length == 0) {
+                throw new IllegalArgumentException("delimiter must not be empty");
+            }
+        } else if (FIXED.equals(options.framing)) {
+            if (options.frameSize <= 0) {
+                throw new IllegalArgumentException("frameSize must be positive, not " + options.frameSize);
+            }
+        } else {
+            throw new IllegalArgumentException("unknown framing " + options.framing);
+        }
+
+        return new MessageFramer(options.framing, options.lengthBytes, options.littleEndian, options.delimiter,
+                options.frameSize, options.maxMessageSize);
+    }
+
+    /**
+     * Takes over bb's buffers, leaving it empty.
+     */
+    void add(ByteBufferList bb) {
+        for (ByteBuffer buffer : bb.getAllArray()) {
+            if (buffer.hasRemaining()) {
+                mBuffers.add(buffer);
+                mBuffered += buffer.remaining();
+            } else {
+                ByteBufferList.reclaim(buffer);
+            }
+        }
+    }
+
+    /**
+     * @return the length of the next complete message, or -1 if it hasn't fully arrived yet
+     * @throws IOException if the peer sent a message larger than allowed
+     */
+    int nextMessageLength() throws IOException {
+        if (FIXED.equals(mMode)) {
+            return mBuffered >= mFrameSize ? mFrameSize : -1;
+        }
+
+        if (LENGTH.equals(mMode)) {
+            if (mBuffered < mLengthBytes) {
+                return -1;
+            }
+            long length = 0;
+            for (int i = 0; i < mLengthBytes; i++) {
+                int b = peek(mLittleEndian ? mLengthBytes - 1 - i : i) & 0xff;
+                length = length << 8 | b;
+            }
+            if (length < 0 || length > mMaxMessageSize) {
+                throw new IOException("message of " + length + " bytes is larger than " + mMaxMessageSize);
+            }
+            return mBuffered - mLengthBytes >= length ? (int) length : -1;
+        }
+
+        int end = findDelimiter();
+        if (end < 0 && mBuffered > mMaxMessageSize) {
+            throw new IOException("no delimiter within " + mMaxMessageSize + " bytes");
+        }
+        return end;
+    }
+
+    /**
+     * Copies the next message, whose length {@link #nextMessageLength} returned, into out and drops it along with
+     * its length prefix or delimiter.
+     */
+    void takeMessage(byte[] out, int length) {
+        if (LENGTH.equals(mMode)) {
+            skip(mLengthBytes);
+        }
+        int copied = 0;
+        while (copied < length) {
+            ByteBuffer buffer = mBuffers.peek();
+            int count = Math.min(buffer.remaining(), length - copied);
+            buffer.get(out, copied, count);
+            copied += count;
+            consumed(buffer, count);
+        }
+        if (DELIMITER.equals(mMode)) {
+            skip(mDelimiter.length);
+        }
+        mScanned = 0;
+    }
+
+    /**
+     * @return bytes held back as the start of a message that hasn't fully arrived yet
+     */
+    int getBuffered() {
+        return mBuffered;
+    }
+
+    /**
+     * Gives the buffers still held back to the reactor's pool.
+     */
+    void recycle() {
+        for (ByteBuffer buffer : mBuffers) {
+            ByteBufferList.reclaim(buffer);
+        }
+        mBuffers.clear();
+        mBuffered = 0;
+        mScanned = 0;
+    }
+
+    private int findDelimiter() {
+        int last = mBuffered - mDelimiter.length;
+        int index = 0;
+        for (ByteBuffer buffer : mBuffers) {
+            if (index + buffer.remaining() <= mScanned) {
+                index += buffer.remaining();
+                continue;
+            }
+            int position = buffer.position() + Math.max(0, mScanned - index);
+            index = Math.max(index, mScanned);
+            int limit = buffer.limit();
+            for (int i = position; i < limit; i++, index++) {
+                if (index > last) {
+                    // too close to the end for the whole delimiter; look again from here when more arrives
+                    mScanned = index;
+                    return -1;
+                }
+                if (buffer.get(i) == mDelimiter[0] && matchesDelimiter(index)) {
+                    return index;
+                }
+            }
+        }
+        mScanned = index;
+        return -1;
+    }
+
+    private boolean matchesDelimiter(int index) {
+        for (int i = 1; i < mDelimiter.length; i++) {
+            if (peek(index + i) != mDelimiter[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private byte peek(int index) {
+        for (ByteBuffer buffer : mBuffers) {
+            if (index < buffer.remaining()) {
+                return buffer.get(buffer.position() + index);
+            }
+            index -= buffer.remaining();
+        }
+        throw new IndexOutOfBoundsException();
+    }
+
+    private void skip(int count) {
+        while (count > 0) {
+            ByteBuffer buffer = mBuffers.peek();
+            int skipped = Math.min(buffer.remaining(), count);
+            buffer.position(buffer.position() + skipped);
+            count -= skipped;
+            consumed(buffer, skipped);
+        }
+    }
+
+    private void consumed(ByteBuffer buffer, int count) {
+        mBuffered -= count;
+        if (!buffer.hasRemaining()) {
+            mBuffers.poll();
+            ByteBufferList.reclaim(buffer);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.peel.react;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs bridge calls off the native modules thread on a small dedicated pool, with one serial lane per socket.
+ *
+ * Tasks for the same socket id run one at a time in submission order; tasks for different sockets run in
+ * parallel. Each turn runs a single task and then requeues its lane, so a busy socket can't starve the others.
+ */
+final class SocketExecutor {
+    private final ThreadPoolExecutor mExecutor;
+    private final SocketTracer mTracer;
+
+    // guarded by itself
+    private final HashMap<Integer, Lane> mLanes = new HashMap<Integer, Lane>();
+
+    private final AtomicInteger mQueued = new AtomicInteger();
+    private final AtomicLong mCompleted = new AtomicLong();
+
+    SocketExecutor(int threadCount, SocketTracer tracer) {
+        mTracer = tracer;
+        mExecutor = new ThreadPoolExecutor(threadCount, threadCount, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    private final AtomicInteger mCount = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "TcpSockets-bridge-" + mCount.getAndIncrement());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    void execute(Integer cId, Runnable task) {
+        mQueued.incrementAndGet();
+        mTracer.instant(SocketTracer.BRIDGE_QUEUE, cId);
+        synchronized (mLanes) {
+            Lane lane = mLanes.get(cId);
+            if (lane == null) {
+                lane = new Lane(cId);
+                mLanes.put(cId, lane);
+            }
+            lane.tasks.add(task);
+            if (lane.running) {
+                return;
+            }
+            lane.running = true;
+            mExecutor.execute(lane);
+        }
+    }
+
+    /**
+     * @return true if nothing is queued or running for the socket, so a call may run inline without overtaking
+     *         an earlier one
+     */
+    boolean isIdle(Integer cId) {
+        synchronized (mLanes) {
+            return !mLanes.containsKey(cId);
+        }
+    }
+
+    /**
+     * @return tasks submitted but not finished yet, across all sockets
+     */
+    int getQueueDepth() {
+        return mQueued.get();
+    }
+
+    int getActiveLanes() {
+        synchronized (mLanes) {
+            return mLanes.size();
+        }
+    }
+
+    long getCompletedCount() {
+        return mCompleted.get();
+    }
+
+    void shutdown() {
+        mExecutor.shutdown();
+    }
+
+    private final class Lane implements Runnable {
+        final Integer id;
+        final ArrayDeque<Runnable> tasks = new ArrayDeque<Runnable>();
+        boolean running;
+
+        Lane(Integer id) {
+            this.id = id;
+        }
+
+        @Override
+        public void run() {
+            Runnable task;
+            synchronized (mLanes) {
+                task = tasks.poll();
+            }
+
+            mTracer.begin(SocketTracer.BRIDGE_RUN, id);
+            try {
+                task.run();
+            } finally {
+                mTracer.end(SocketTracer.BRIDGE_RUN, id);
+                mQueued.decrementAndGet();
+                mCompleted.incrementAndGet();
+                synchronized (mLanes) {
+                    if (tasks.isEmpty()) {
+                        running = false;
+                        mLanes.remove(id);
+                    } else {
+                        mExecutor.execute(this);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.peel.react;
+
+import android.os.SystemClock;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Totals across every socket of a {@link TcpSocketManager}, updated from reactor and bridge threads alike.
+ */
+final class SocketMetrics {
+    final AtomicLong bytesIn = new AtomicLong();
+    final AtomicLong bytesOut = new AtomicLong();
+    final AtomicLong eventsEmitted = new AtomicLong();
+    final AtomicLong batchesEmitted = new AtomicLong();
+    final AtomicLong connects = new AtomicLong();
+    final AtomicLong connectFailures = new AtomicLong();
+    final AtomicLong accepted = new AtomicLong();
+    final AtomicLong shedConnections = new AtomicLong();
+    final AtomicLong errors = new AtomicLong();
+    final AtomicLong poolHits = new AtomicLong();
+    final AtomicLong poolMisses = new AtomicLong();
+
+    final Histogram connectLatency = new Histogram();
+    final Histogram handshakeLatency = new Histogram();
+
+    /**
+     * @return connections accepted per second since the reader's previous call
+     */
+    double takeAcceptRate(RateReader reader) {
+        return reader.take(accepted.get());
+    }
+
+    /**
+     * Where one reader of a counter last looked. Each reader keeps its own, so reading a rate doesn't shorten
+     * the interval another reader sees.
+     */
+    static final class RateReader {
+        // guarded by this
+        private long mLastCount;
+        private long mLastSample = SystemClock.uptimeMillis();
+
+        synchronized double take(long count) {
+            long now = SystemClock.uptimeMillis();
+            long elapsed = now - mLastSample;
+            double rate = elapsed > 0 ? (count - mLastCount) * 1000.0 / elapsed : 0;
+            mLastCount = count;
+            mLastSample = now;
+            return rate;
+        }
+    }
+
+    /**
+     * Millisecond latencies in power of two buckets: bucket i counts values below 2^i ms, the last one
+     * everything from 2^(BUCKETS - 2) ms up.
+     */
+    static final class Histogram {
+        static final int BUCKETS = 17;
+
+        private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mSum = new AtomicLong();
+
+        void record(long ms) {
+            ms = Math.max(0, ms);
+            int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(ms));
+            mBuckets.incrementAndGet(bucket);
+            mCount.incrementAndGet();
+            mSum.addAndGet(ms);
+        }
+
+        long getCount() {
+            return mCount.get();
+        }
+
+        long getSum() {
+            return mSum.get();
+        }
+
+        long getBucket(int i) {
+            return mBuckets.get(i);
+        }
+
+        /**
+         * @return the upper bound of the bucket the given fraction of values falls in, or 0 with no values
+         */
+        long getPercentile(double fraction) {
+            long count = mCount.get();
+            if (count == 0) {
+                return 0;
+            }
+            long target = (long) Math.ceil(count * fraction);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += mBuckets.get(i);
+                if (seen >= target) {
+                    return 1L << i;
+                }
+            }
+            return 1L << (BUCKETS - 1);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.peel.react;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters for a single socket. Written on the socket's reactor thread only, so plain volatile fields are enough
+ * for {@link TcpSockets#getStats} to read them from the bridge.
+ */
+final class SocketStats {
+    // chunks as the reactor hands them over, and the data events they were coalesced into
+    volatile long bytesIn;
+    volatile long chunksIn;
+    volatile long dataEvents;
+    // bytes actually sent for sockets with compression
+    volatile long compressedBytesOut;
+
+    // how long the tcp connect and tls handshake took, or -1 if the socket did not go through them
+    volatile long connectMs = -1;
+    volatile long handshakeMs = -1;
+
+    // errors are also reported from bridge threads
+    final AtomicLong errors = new AtomicLong();
+}
@@ -0,0 +1,137 @@
+package com.peel.react;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Opt-in tracing of socket lifecycle events into a fixed size ring buffer, exported in the Chrome trace event
+ * JSON format that Perfetto and chrome://tracing open.
+ *
+ * One socket's spans don't nest: a dns lookup starts inside a bridge call and ends on the reactor after it, and
+ * reactor data overlaps inline writes. They are exported as async events with an id per socket and event, so
+ * each begin is paired with its own end. Instants go on a track per socket id.
+ *
+ * Recording allocates nothing: the buffer is allocated once by {@link #start}, and while tracing is stopped a
+ * record call is a single null check. Entries written while {@link #export} runs may come out torn; the buffer
+ * is meant to be dumped after the fact, not read live.
+ */
+final class SocketTracer {
+    static final int DNS = 0;
+    static final int CONNECT = 1;
+    static final int TLS = 2;
+    static final int BRIDGE_QUEUE = 3;
+    static final int BRIDGE_RUN = 4;
+    static final int DATA = 5;
+    static final int WRITE = 6;
+    static final int ACCEPT = 7;
+    static final int CLOSE = 8;
+
+    private static final String[] NAMES = {
+            "dns", "connect", "tls", "bridge queue", "bridge run", "data", "write", "accept", "close"
+    };
+
+    private static final char BEGIN = 'b';
+    private static final char END = 'e';
+    private static final char INSTANT = 'i';
+
+    // null while stopped; the last buffer stays around for export after that
+    private volatile Ring mRing;
+    private volatile Ring mLastRing;
+
+    /**
+     * Starts recording into a fresh buffer of at least capacity events, dropping anything recorded before.
+     */
+    void start(int capacity) {
+        Ring ring = new Ring(Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1);
+        mLastRing = ring;
+        mRing = ring;
+    }
+
+    void stop() {
+        mRing = null;
+    }
+
+    boolean isEnabled() {
+        return mRing != null;
+    }
+
+    void begin(int event, int id) {
+        Ring ring = mRing;
+        if (ring != null) {
+            ring.record(event, BEGIN, id);
+        }
+    }
+
+    void end(int event, int id) {
+        Ring ring = mRing;
+        if (ring != null) {
+            ring.record(event, END, id);
+        }
+    }
+
+    void instant(int event, int id) {
+        Ring ring = mRing;
+        if (ring != null) {
+            ring.record(event, INSTANT, id);
+        }
+    }
+
+    /**
+     * @return the recorded events, oldest first, as a Chrome trace event JSON document; empty if tracing was
+     *         never started
+     */
+    String export() {
+        Ring ring = mLastRing;
+        StringBuilder json = new StringBuilder("{\"traceEvents\":[");
+        if (ring != null) {
+            int next = ring.next.get();
+            // the counter may have wrapped around after a long session
+            int count = next < 0 || next > ring.capacity ? ring.capacity : next;
+            for (int i = 0; i < count; i++) {
+                int slot = (next - count + i) & ring.mask;
+                if (i > 0) {
+                    json.append(',');
+                }
+                String name = NAMES[ring.events[slot]];
+                int id = ring.ids[slot];
+                json.append("{\"name\":\"").append(name)
+                        .append("\",\"cat\":\"socket\",\"ph\":\"").append(ring.phases[slot])
+                        .append("\",\"ts\":").append(ring.timestamps[slot] / 1000)
+                        .append(",\"pid\":0,\"tid\":").append(id);
+                if (ring.phases[slot] == INSTANT) {
+                    json.append(",\"s\":\"t\"");
+                } else {
+                    json.append(",\"id\":\"").append(id).append(' ').append(name).append('"');
+                }
+                json.append(",\"args\":{\"socket\":").append(id).append("}}");
+            }
+        }
+        return json.append("],\"displayTimeUnit\":\"ms\"}").toString();
+    }
+
+    private static final class Ring {
+        final int capacity;
+        final int mask;
+        final AtomicInteger next = new AtomicInteger();
+        final long[] timestamps;
+        final int[] ids;
+        final int[] events;
+        final char[] phases;
+
+        Ring(int capacity) {
+            this.capacity = capacity;
+            mask = capacity - 1;
+            timestamps = new long[capacity];
+            ids = new int[capacity];
+            events = new int[capacity];
+            phases = new char[capacity];
+        }
+
+        void record(int event, char phase, int id) {
+            int slot = next.getAndIncrement() & mask;
+            timestamps[slot] = System.nanoTime();
+            ids[slot] = id;
+            events[slot] = event;
+            phases[slot] = phase;
+        }
+    }
+}
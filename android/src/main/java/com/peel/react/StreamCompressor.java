@@ -0,0 +1,158 @@
+package com.peel.react;
+
+import androidx.annotation.Nullable;
+
+import com.koushikdutta.async.ByteBufferList;
+
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses a socket's outbound stream and decompresses its inbound one, as zlib streams like node's
+ * zlib.createDeflate and createInflate. Only touched on the socket's reactor thread.
+ *
+ * Every batch of writes ends with a sync flush, so the peer can decode everything written so far without the
+ * stream ending. The deflater, inflater and optional preset dictionary live as long as the socket, and output
+ * goes straight into AndroidAsync's pooled buffers, which the socket reclaims once written.
+ */
+final class StreamCompressor {
+    private static final int CHUNK_SIZE = 16 * 1024;
+
+    private final Deflater mDeflater;
+    private final Inflater mInflater = new Inflater();
+    @Nullable private final byte[] mDictionary;
+
+    /**
+     * Checks options for compression settings Deflater would reject, before any socket is opened with them.
+     *
+     * @throws IllegalArgumentException naming the invalid option
+     */
+    static void validate(TcpSocketOptions options) {
+        int level = options.compressionLevel;
+        if (options.compress && (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION)) {
+            throw new IllegalArgumentException("compressionLevel must be -1 to 9, not " + level);
+        }
+    }
+
+    StreamCompressor(int level, @Nullable byte[] dictionary) {
+        mDeflater = new Deflater(level);
+        mDictionary = dictionary;
+        if (dictionary != null) {
+            mDeflater.setDictionary(dictionary);
+        }
+    }
+
+    /**
+     * Compresses everything in in onto the end of out, emptying in.
+     *
+     * @return the number of compressed bytes added to out
+     */
+    int deflate(ByteBufferList in, ByteBufferList out) {
+        int written = 0;
+        for (ByteBuffer buffer : in.getAllArray()) {
+            setInput(buffer);
+            while (!mDeflater.needsInput()) {
+                written += deflateChunk(out, Deflater.NO_FLUSH);
+            }
+            ByteBufferList.reclaim(buffer);
+        }
+
+        // a full chunk means the deflater may have more to give
+        int count;
+        do {
+            count = deflateChunk(out, Deflater.SYNC_FLUSH);
+            written += count;
+        } while (count == CHUNK_SIZE);
+        return written;
+    }
+
+    /**
+     * Decompresses everything in in onto the end of out, emptying in.
+     *
+     * @throws DataFormatException if in isn't part of a zlib stream, or needs a dictionary the socket lacks
+     */
+    void inflate(ByteBufferList in, ByteBufferList out) throws DataFormatException {
+        for (ByteBuffer buffer : in.getAllArray()) {
+            byte[] array = toArray(buffer);
+            int offset = buffer.hasArray() ? buffer.arrayOffset() + buffer.position() : 0;
+            int length = buffer.remaining();
+            mInflater.setInput(array, offset, length);
+
+            while (true) {
+                ByteBuffer chunk = obtainChunk();
+                int count = mInflater.inflate(chunk.array(), chunk.arrayOffset(), CHUNK_SIZE);
+                if (count > 0) {
+                    chunk.limit(count);
+                    out.add(chunk);
+                    continue;
+                }
+                ByteBufferList.reclaim(chunk);
+
+                if (mInflater.needsDictionary()) {
+                    if (mDictionary == null) {
+                        throw new DataFormatException("the peer compresses with a dictionary");
+                    }
+                    mInflater.setDictionary(mDictionary);
+                } else if (mInflater.finished()) {
+                    // the peer ended its stream and may have started a new one right after
+                    int remaining = mInflater.getRemaining();
+                    mInflater.reset();
+                    if (remaining == 0) {
+                        break;
+                    }
+                    mInflater.setInput(array, offset + length - remaining, remaining);
+                } else {
+                    // needs more input
+                    break;
+                }
+            }
+            ByteBufferList.reclaim(buffer);
+        }
+    }
+
+    /**
+     * Frees the native zlib state.
+     */
+    void end() {
+        mDeflater.end();
+        mInflater.end();
+    }
+
+    private void setInput(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            mDeflater.setInput(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        } else {
+            mDeflater.setInput(toArray(buffer));
+        }
+    }
+
+    private int deflateChunk(ByteBufferList out, int flush) {
+        ByteBuffer chunk = obtainChunk();
+        int count = mDeflater.deflate(chunk.array(), chunk.arrayOffset(), CHUNK_SIZE, flush);
+        if (count > 0) {
+            chunk.limit(count);
+            out.add(chunk);
+        } else {
+            ByteBufferList.reclaim(chunk);
+        }
+        return count;
+    }
+
+    private static ByteBuffer obtainChunk() {
+        ByteBuffer chunk = ByteBufferList.obtain(CHUNK_SIZE);
+        chunk.clear();
+        return chunk;
+    }
+
+    // buffers without an accessible array are rare, the reactor only hands out heap buffers
+    private static byte[] toArray(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            return buffer.array();
+        }
+        byte[] array = new byte[buffer.remaining()];
+        buffer.duplicate().get(array);
+        return array;
+    }
+}
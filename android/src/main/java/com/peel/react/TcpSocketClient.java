@@ -0,0 +1,173 @@
+package com.peel.react;
+
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.Callback;
+import com.koushikdutta.async.AsyncSocket;
+import com.koushikdutta.async.ByteBufferList;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A connected socket tracked by {@link TcpSocketManager}, along with the options it was opened with.
+ */
+final class TcpSocketClient {
+    final Integer id;
+    final TcpSocketOptions options;
+    final SocketStats stats;
+
+    // set for sockets that go back to the connection pool when ended
+    @Nullable String poolKey;
+
+    // the server that accepted this socket, null for outgoing ones
+    @Nullable TcpSocketServer server;
+
+    // replaced when the connection is upgraded to tls
+    volatile AsyncSocket socket;
+
+    // inbound data held back for coalescing, only touched on the reactor thread
+    final ByteBufferList readBuffer = new ByteBufferList();
+    Object pendingReadFlush;
+
+    // read flow control, only touched on the reactor thread
+    boolean pausedByUser;
+    boolean pausedByBudget;
+    boolean pausedByServer;
+    long unacknowledgedBytes;
+
+    // half close state, only touched on the reactor thread: ending once js ended the socket, outputShutdown once
+    // everything written before went out and the socket stopped sending, remoteEnded once the peer did
+    boolean ending;
+    boolean outputShutdown;
+    boolean remoteEnded;
+    // tls sockets send close_notify before they stop sending
+    boolean closeNotifySent;
+
+    // idle timeout, only touched on the reactor thread
+    int idleTimeout;
+    long lastActivity;
+    Object pendingIdleCheck;
+
+    // a file being streamed to the socket; writes queued meanwhile wait for it, only touched on the reactor thread
+    @Nullable FileSender fileSender;
+
+    // a file inbound data is written to instead of being delivered, only touched on the reactor thread
+    @Nullable FileReceiver fileReceiver;
+
+    // splits inbound data into messages, only touched on the reactor thread
+    @Nullable MessageFramer framer;
+
+    // compresses writes and decompresses reads when the socket was opened with compression, only touched on the
+    // reactor thread; compressed writes the socket hasn't taken wait in compressedWrite, and
+    // compressedPending counts the bytes they were compressed from
+    @Nullable StreamCompressor compressor;
+    final ByteBufferList compressedWrite = new ByteBufferList();
+    long compressedPending;
+    // decompressed reads, reused for every chunk
+    final ByteBufferList inflated = new ByteBufferList();
+
+    // plaintext the tls wrapper took, but whose records are still waiting in its sink, only touched on the
+    // reactor thread; see TlsSink
+    long tlsPending;
+
+    // writes handed over from the bridge, guarded by this
+    private final ByteBufferList mQueued = new ByteBufferList();
+    private final ArrayList<PendingWrite> mQueuedCallbacks = new ArrayList<PendingWrite>();
+    private long mBytesQueued;
+    private long mChunksQueued;
+    private boolean mDrainScheduled;
+
+    // writes the socket has not taken yet, only touched on the reactor thread
+    final ByteBufferList pendingWrite = new ByteBufferList();
+    private final ArrayDeque<PendingWrite> mInFlight = new ArrayDeque<PendingWrite>();
+    private long mBytesTaken;
+    private volatile long mBytesFlushed;
+
+    TcpSocketClient(Integer id, AsyncSocket socket, TcpSocketOptions options, SocketStats stats) {
+        this.id = id;
+        this.socket = socket;
+        this.options = options;
+        this.stats = stats;
+    }
+
+    /**
+     * Queues chunks to be written as one batch, with a callback to run once all of them reach the socket.
+     *
+     * @return true if the caller has to schedule a drain on the reactor thread
+     */
+    synchronized boolean enqueue(List<byte[]> chunks, @Nullable Callback callback) {
+        for (byte[] chunk : chunks) {
+            mQueued.add(ByteBuffer.wrap(chunk));
+            mBytesQueued += chunk.length;
+        }
+        mChunksQueued += chunks.size();
+        if (callback != null) {
+            mQueuedCallbacks.add(new PendingWrite(mBytesQueued, callback));
+        }
+        if (mDrainScheduled) {
+            return false;
+        }
+        mDrainScheduled = true;
+        return true;
+    }
+
+    /**
+     * Bytes written from js that the socket has not taken yet, like node's socket.bufferSize.
+     */
+    synchronized long bufferSize() {
+        return mBytesQueued - mBytesFlushed;
+    }
+
+    /**
+     * @return bytes the socket has taken so far
+     */
+    long bytesFlushed() {
+        return mBytesFlushed;
+    }
+
+    synchronized long chunksQueued() {
+        return mChunksQueued;
+    }
+
+    /**
+     * Moves everything queued so far into {@link #pendingWrite}. Must run on the reactor thread.
+     */
+    void takeQueued() {
+        synchronized (this) {
+            mBytesTaken += mQueued.remaining();
+            mQueued.get(pendingWrite);
+            mInFlight.addAll(mQueuedCallbacks);
+            mQueuedCallbacks.clear();
+            mDrainScheduled = false;
+        }
+    }
+
+    /**
+     * Removes and returns the callbacks of every batch the socket has fully sent. Must run on the reactor thread.
+     */
+    List<Callback> takeCompleted() {
+        long flushed = mBytesTaken - pendingWrite.remaining() - compressedPending - tlsPending;
+        mBytesFlushed = flushed;
+        List<Callback> completed = null;
+        while (!mInFlight.isEmpty() && mInFlight.peek().end <= flushed) {
+            if (completed == null) {
+                completed = new ArrayList<Callback>();
+            }
+            completed.add(mInFlight.poll().callback);
+        }
+        return completed;
+    }
+
+    private static final class PendingWrite {
+        final long end;
+        final Callback callback;
+
+        PendingWrite(long end, Callback callback) {
+            this.end = end;
+            this.callback = callback;
+        }
+    }
+}
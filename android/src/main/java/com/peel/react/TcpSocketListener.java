@@ -1,6 +1,9 @@
 package com.peel.react;
 
+import androidx.annotation.Nullable;
+
 import java.net.InetSocketAddress;
+import java.util.List;
 
 /**
  * Created by aprock on 12/28/15.
@@ -8,11 +11,26 @@ import java.net.InetSocketAddress;
 public interface TcpSocketListener {
     // server
     void onConnection(Integer serverId, Integer clientId, InetSocketAddress socketAddress);
+    // several connections at once, for servers listening with connectionBatchMs
+    void onConnections(Integer serverId, List<Integer> clientIds, List<InetSocketAddress> socketAddresses);
 
     // client and server
     void onSecureConnect(Integer id);
     void onConnect(Integer id, InetSocketAddress socketAddress);
-    void onData(Integer id, byte[] data);
+    // data is only valid for the duration of the call, and only its first length bytes
+    void onData(Integer id, byte[] data, int length, boolean latin1);
+    // a whole message for sockets with framing, valid for the duration of the call like onData
+    void onMessage(Integer id, byte[] data, int length, boolean latin1);
+    void onFileProgress(Integer id, long bytesSent, long bytesTotal);
+    // bytesTotal is -1 when receiving until the end of the stream
+    void onReceiveProgress(Integer id, long bytesReceived, long bytesTotal);
+    void onReceiveComplete(Integer id, long bytesReceived, @Nullable String error);
+    void onTimeout(Integer id);
+    // the peer half closed a socket opened with allowHalfOpen
+    void onEnd(Integer id);
     void onClose(Integer id, String error);
     void onError(Integer id, String error);
+
+    // periodic, see TcpSocketManager#setStatsInterval
+    void onStats();
 }
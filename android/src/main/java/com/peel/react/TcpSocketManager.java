@@ -1,60 +1,137 @@
 package com.peel.react;
 
 import androidx.annotation.Nullable;
-import android.util.SparseArray;
-import android.os.Build;
+import android.os.SystemClock;
 
 import com.facebook.react.bridge.Callback;
 import com.koushikdutta.async.*;
 import com.koushikdutta.async.callback.CompletedCallback;
-import com.koushikdutta.async.callback.ConnectCallback;
 import com.koushikdutta.async.callback.DataCallback;
 import com.koushikdutta.async.callback.ListenCallback;
+import com.koushikdutta.async.callback.WritableCallback;
 
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
 import java.net.UnknownHostException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DataFormatException;
 
-import javax.net.ssl.HostnameVerifier;
-import javax.net.ssl.KeyManagerFactory;
-import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLEngine;
-import javax.net.ssl.SSLEngineResult;
-import javax.net.ssl.SSLEngineResult.HandshakeStatus;
-import javax.net.ssl.SSLEngineResult.Status;
-import javax.net.ssl.SSLException;
-import javax.net.ssl.SSLSession;
-import javax.net.ssl.TrustManager;
-import javax.net.ssl.TrustManagerFactory;
-import javax.net.ssl.X509TrustManager;
-import java.security.cert.X509Certificate;
 
 /**
  * Created by aprock on 12/29/15.
  */
 public final class TcpSocketManager {
-    private SparseArray<Object> mClients = new SparseArray<Object>();
+    // most connections a server announces in one event
+    private static final int MAX_CONNECTION_BATCH = 128;
+    // file sends and receives report progress at most once per this many bytes
+    private static final long FILE_PROGRESS_BYTES = 256 * 1024;
+
+    // written from reactor callbacks and read from bridge threads, so lookups on the write path never lock
+    private final ConcurrentHashMap<Integer, Object> mClients = new ConcurrentHashMap<Integer, Object>();
 
     private WeakReference<TcpSocketListener> mListener;
-    private AsyncServer mServer = AsyncServer.getDefault();
+    // reactors sockets are sharded across by id; the shared default reactor unless private ones were asked for
+    private final AsyncServer[] mServers;
+    private final boolean mOwnsServers;
+
+    // ids for accepted sockets, above the range js hands out
+    private final AtomicInteger mInstances = new AtomicInteger(5000);
+
+    private volatile BufferPool mBufferPool = new BufferPool(64 * 1024, 4);
+
+    private final DnsResolver mResolver;
 
-    private int mInstances = 5000;
+    private final ConnectionPool mPool = new ConnectionPool();
 
-    static SSLContext defaultSSLContext;
-    static SSLContext trustAllSSLContext;
-    static TrustManager[] trustAllManagers;
-    static HostnameVerifier trustAllVerifier;
+    private final SocketMetrics mMetrics = new SocketMetrics();
+    private final SocketTracer mTracer;
+    private int mStatsInterval;
+    private Object mPendingStats;
+
+    // teardowns waiting for their sockets to close
+    private final Set<Teardown> mTeardowns = Collections.newSetFromMap(new ConcurrentHashMap<Teardown, Boolean>());
+    private volatile boolean mShutdown;
 
     public TcpSocketManager(TcpSocketListener listener) throws IOException {
+        this(listener, 0);
+    }
+
+    /**
+     * @param reactorCount number of private reactor threads to spread sockets over, or 0 to share
+     *                     {@link AsyncServer#getDefault()} with the rest of the app
+     */
+    public TcpSocketManager(TcpSocketListener listener, int reactorCount) throws IOException {
+        this(listener, reactorCount, new SocketTracer());
+    }
+
+    TcpSocketManager(TcpSocketListener listener, int reactorCount, SocketTracer tracer) throws IOException {
+        mTracer = tracer;
         mListener = new WeakReference<TcpSocketListener>(listener);
+
+        mOwnsServers = reactorCount > 0;
+        if (mOwnsServers) {
+            mServers = new AsyncServer[reactorCount];
+            for (int i = 0; i < reactorCount; i++) {
+                mServers[i] = new AsyncServer("TcpSockets-" + i);
+            }
+        } else {
+            mServers = new AsyncServer[] { AsyncServer.getDefault() };
+        }
+        mResolver = new DnsResolver(mServers[0], 60 * 1000, 10 * 1000);
+    }
+
+    /**
+     * The reactor a socket id is pinned to. Accepted sockets stay on their server's reactor instead.
+     */
+    private AsyncServer getServer(Integer cId) {
+        return mServers[(cId & Integer.MAX_VALUE) % mServers.length];
     }
 
-    private void setSocketCallbacks(final Integer cId, final AsyncSocket socket) {
+    private void setSocketCallbacks(final TcpSocketClient client) {
+        final Integer cId = client.id;
+        final AsyncSocket socket = client.socket;
         socket.setClosedCallback(new CompletedCallback() {
             @Override
             public void onCompleted(Exception ex) {
+                flushReadBuffer(client);
+                if (client.fileSender != null) {
+                    finishFile(client, "socket closed");
+                }
+                if (client.fileReceiver != null) {
+                    // receiving up to the end of the stream succeeds here
+                    finishReceive(client, client.fileReceiver.getLength() < 0 ? null : "socket closed");
+                }
+                if (client.framer != null) {
+                    client.framer.recycle();
+                }
+                if (client.compressor != null) {
+                    client.compressor.end();
+                    client.compressedWrite.recycle();
+                }
+                mTracer.instant(SocketTracer.CLOSE, cId);
+                mClients.remove(cId, client);
+                for (Teardown teardown : mTeardowns) {
+                    teardown.closed(client);
+                }
+                if (client.server != null) {
+                    onConnectionClosed(client.server);
+                }
                 TcpSocketListener listener = mListener.get();
                 if (listener != null) {
                     listener.onClose(cId, ex == null ? null : ex.getMessage());
@@ -65,68 +142,646 @@ public final class TcpSocketManager {
         socket.setDataCallback(new DataCallback() {
             @Override
             public void onDataAvailable(DataEmitter emitter, ByteBufferList bb) {
-                TcpSocketListener listener = mListener.get();
-                if (listener != null) {
-                    listener.onData(cId, bb.getAllByteArray());
+                client.lastActivity = SystemClock.uptimeMillis();
+                int length = bb.remaining();
+                client.stats.bytesIn += length;
+                client.stats.chunksIn++;
+                mMetrics.bytesIn.addAndGet(length);
+                if (client.compressor != null) {
+                    try {
+                        client.compressor.inflate(bb, client.inflated);
+                    } catch (DataFormatException dfe) {
+                        bb.recycle();
+                        TcpSocketListener listener = mListener.get();
+                        if (listener != null) {
+                            listener.onError(cId, "unable to decompress: " + dfe.getMessage());
+                        }
+                        socket.close();
+                        return;
+                    }
+                    bb = client.inflated;
+                    if (!bb.hasRemaining()) {
+                        return;
+                    }
+                }
+                if (client.fileReceiver != null) {
+                    receive(client, bb);
+                    if (!bb.hasRemaining()) {
+                        return;
+                    }
+                }
+                if (client.framer != null) {
+                    client.framer.add(bb);
+                    emitMessages(client);
+                    return;
+                }
+                if (client.options.coalesceMs <= 0) {
+                    emitData(client, bb);
+                    return;
                 }
+
+                // move the buffers over without copying, and hold them until the window closes
+                bb.get(client.readBuffer);
+                if (client.readBuffer.remaining() >= client.options.coalesceBytes) {
+                    flushReadBuffer(client);
+                } else if (client.pendingReadFlush == null) {
+                    client.pendingReadFlush = socket.getServer().postDelayed(new Runnable() {
+                        @Override
+                        public void run() {
+                            client.pendingReadFlush = null;
+                            flushReadBuffer(client);
+                        }
+                    }, client.options.coalesceMs);
+                }
+            }
+        });
+
+        socket.setWriteableCallback(new WritableCallback() {
+            @Override
+            public void onWriteable() {
+                drainWrites(client);
             }
         });
 
         socket.setEndCallback(new CompletedCallback() {
             @Override
             public void onCompleted(Exception ex) {
+                flushReadBuffer(client);
+                TcpSocketListener listener = mListener.get();
                 if (ex != null) {
-                    TcpSocketListener listener = mListener.get();
                     if (listener != null) {
                         listener.onError(cId, ex.getMessage());
                     }
+                } else if (client.options.allowHalfOpen && !client.outputShutdown) {
+                    // writing goes on until js ends the socket too
+                    client.remoteEnded = true;
+                    if (client.fileReceiver != null) {
+                        finishReceive(client, client.fileReceiver.getLength() < 0 ? null : "socket ended");
+                    }
+                    if (listener != null) {
+                        listener.onEnd(cId);
+                    }
+                    return;
                 }
                 socket.close();
             }
         });
     }
 
-    public void listen(final Integer cId, final String host, final Integer port)
-            throws UnknownHostException, IOException {
-        // resolve the address
-        final InetSocketAddress socketAddress;
-        if (host != null) {
-            socketAddress = new InetSocketAddress(InetAddress.getByName(host), port);
-        } else {
-            socketAddress = new InetSocketAddress(port);
+    /**
+     * Writes inbound data to the socket's file, leaving in bb whatever comes after the bytes the file asked for.
+     * Must run on the reactor thread.
+     */
+    private void receive(TcpSocketClient client, ByteBufferList bb) {
+        FileReceiver receiver = client.fileReceiver;
+        try {
+            receiver.receive(bb);
+        } catch (IOException ioe) {
+            // the rest of what the file was meant to get is lost, so the stream can't be trusted any more
+            bb.recycle();
+            finishReceive(client, "unable to write file: " + ioe.getMessage());
+            client.socket.close();
+            return;
+        }
+
+        long received = receiver.getBytesReceived();
+        if (receiver.isDone() || received - receiver.lastProgress >= FILE_PROGRESS_BYTES) {
+            receiver.lastProgress = received;
+            TcpSocketListener listener = mListener.get();
+            if (listener != null) {
+                listener.onReceiveProgress(client.id, received, receiver.getLength());
+            }
+        }
+        if (receiver.isDone()) {
+            finishReceive(client, null);
+        }
+    }
+
+    private void finishReceive(TcpSocketClient client, @Nullable String error) {
+        FileReceiver receiver = client.fileReceiver;
+        client.fileReceiver = null;
+        try {
+            receiver.close();
+        } catch (IOException ioe) {
+            if (error == null) {
+                error = "unable to write file: " + ioe.getMessage();
+            }
+        }
+
+        TcpSocketListener listener = mListener.get();
+        if (listener != null) {
+            listener.onReceiveComplete(client.id, receiver.getBytesReceived(), error);
+        }
+    }
+
+    /**
+     * Writes the socket's next inbound bytes to a file instead of delivering them, reporting progress and then
+     * completion to the listener. Data after those bytes is delivered as usual.
+     *
+     * @param length bytes to write to the file, or -1 for everything until the peer ends the stream
+     */
+    public void receiveToFile(final Integer cId, String path, final long length, boolean append) {
+        final TcpSocketClient client = getClient(cId);
+        if (client == null) {
+            TcpSocketListener listener = mListener.get();
+            if (listener != null) {
+                listener.onReceiveComplete(cId, 0, "unable to find socket");
+            }
+            return;
+        }
+
+        final FileChannel file;
+        try {
+            file = new FileOutputStream(path, append).getChannel();
+        } catch (IOException ioe) {
+            TcpSocketListener listener = mListener.get();
+            if (listener != null) {
+                listener.onReceiveComplete(cId, 0, ioe.getMessage());
+            }
+            return;
         }
 
-        mServer.listen(InetAddress.getByName(host), port, new ListenCallback() {
+        client.socket.getServer().post(new Runnable() {
             @Override
-            public void onListening(AsyncServerSocket socket) {
-                mClients.put(cId, socket);
+            public void run() {
+                if (client.fileReceiver != null || !client.socket.isOpen() || length == 0) {
+                    try {
+                        file.close();
+                    } catch (IOException ioe) {
+                        // nothing was written to it
+                    }
+                    TcpSocketListener listener = mListener.get();
+                    if (listener != null) {
+                        listener.onReceiveComplete(cId, 0, client.fileReceiver != null ? "already receiving a file"
+                                : !client.socket.isOpen() ? "socket closed" : null);
+                    }
+                    return;
+                }
 
+                // data that arrived before belongs to js
+                flushReadBuffer(client);
+                client.fileReceiver = new FileReceiver(file, length);
+            }
+        });
+    }
+
+    /**
+     * Delivers any coalesced inbound data as a single data event. Must run on the socket's reactor thread.
+     */
+    private void flushReadBuffer(TcpSocketClient client) {
+        if (client.pendingReadFlush != null) {
+            client.socket.getServer().removeAllCallbacks(client.pendingReadFlush);
+            client.pendingReadFlush = null;
+        }
+        if (!client.readBuffer.hasRemaining()) {
+            return;
+        }
+
+        emitData(client, client.readBuffer);
+    }
+
+    /**
+     * Sends a data event, pausing the socket if js falls too far behind. Must run on the reactor thread.
+     */
+    private void emitData(TcpSocketClient client, ByteBufferList bb) {
+        // the listener is done with the array when onData returns, so it can go straight back to the pool
+        BufferPool pool = mBufferPool;
+        int length = bb.remaining();
+        byte[] data = pool.acquire(length);
+        bb.get(data, 0, length);
+
+        mTracer.begin(SocketTracer.DATA, client.id);
+        TcpSocketListener listener = mListener.get();
+        if (listener != null) {
+            listener.onData(client.id, data, length, client.options.latin1);
+        }
+        mTracer.end(SocketTracer.DATA, client.id);
+        pool.release(data);
+        onDelivered(client, length);
+    }
+
+    /**
+     * Sends a message event for every whole message the socket's framer holds. Must run on the reactor thread.
+     */
+    private void emitMessages(TcpSocketClient client) {
+        MessageFramer framer = client.framer;
+        BufferPool pool = mBufferPool;
+        try {
+            int length;
+            while (client.framer == framer && (length = framer.nextMessageLength()) >= 0) {
+                byte[] data = pool.acquire(length);
+                framer.takeMessage(data, length);
+
+                mTracer.begin(SocketTracer.DATA, client.id);
                 TcpSocketListener listener = mListener.get();
                 if (listener != null) {
-                    listener.onConnect(cId, socketAddress);
+                    listener.onMessage(client.id, data, length, client.options.latin1);
+                }
+                mTracer.end(SocketTracer.DATA, client.id);
+                pool.release(data);
+                onDelivered(client, length);
+            }
+        } catch (IOException ioe) {
+            TcpSocketListener listener = mListener.get();
+            if (listener != null) {
+                listener.onError(client.id, "unable to read message: " + ioe.getMessage());
+            }
+            client.socket.close();
+        }
+    }
+
+    // pauses the socket if js falls too far behind
+    private void onDelivered(TcpSocketClient client, int length) {
+        client.stats.dataEvents++;
+        if (client.options.readBudget > 0) {
+            client.unacknowledgedBytes += length;
+            if (client.unacknowledgedBytes > client.options.readBudget && !client.pausedByBudget) {
+                client.pausedByBudget = true;
+                updatePaused(client);
+            }
+        }
+    }
+
+    /**
+     * Splits the socket's inbound data into message events from now on, or goes back to plain data events when
+     * options has no framing. A partial message held by an earlier framing is dropped.
+     *
+     * @throws IllegalArgumentException if the options don't describe a valid framing
+     */
+    public void setFraming(final Integer cId, final TcpSocketOptions options) {
+        final MessageFramer framer = MessageFramer.create(options);
+        final TcpSocketClient client = getClient(cId);
+        if (client == null) {
+            return;
+        }
+        client.socket.getServer().post(new Runnable() {
+            @Override
+            public void run() {
+                // data that arrived before belongs to the old framing
+                flushReadBuffer(client);
+                if (client.framer != null) {
+                    client.framer.recycle();
                 }
+                client.framer = framer;
             }
+        });
+    }
 
+    private void updatePaused(TcpSocketClient client) {
+        AsyncSocket socket = client.socket;
+        boolean paused = client.pausedByUser || client.pausedByBudget || client.pausedByServer;
+        if (paused && !socket.isPaused()) {
+            socket.pause();
+        } else if (!paused && socket.isPaused()) {
+            socket.resume();
+        }
+    }
+
+    /**
+     * Stops reading from the socket, so the kernel receive window pushes back on the peer.
+     */
+    public void pause(final Integer cId) {
+        final TcpSocketClient client = getClient(cId);
+        if (client == null) {
+            return;
+        }
+        client.socket.getServer().post(new Runnable() {
             @Override
-            public void onAccepted(AsyncSocket socket) {
-                setSocketCallbacks(mInstances, socket);
-                mClients.put(mInstances, socket);
+            public void run() {
+                client.pausedByUser = true;
+                updatePaused(client);
+            }
+        });
+    }
+
+    public void resume(final Integer cId) {
+        final TcpSocketClient client = getClient(cId);
+        if (client == null) {
+            return;
+        }
+        client.socket.getServer().post(new Runnable() {
+            @Override
+            public void run() {
+                client.pausedByUser = false;
+                updatePaused(client);
+            }
+        });
+    }
+
+    /**
+     * Marks delivered bytes as consumed by js. A socket paused by its read budget resumes once at most half of
+     * the budget is outstanding.
+     */
+    public void acknowledge(final Integer cId, final int byteCount) {
+        final TcpSocketClient client = getClient(cId);
+        if (client == null) {
+            return;
+        }
+        client.socket.getServer().post(new Runnable() {
+            @Override
+            public void run() {
+                client.unacknowledgedBytes = Math.max(0, client.unacknowledgedBytes - byteCount);
+                if (client.pausedByBudget && client.unacknowledgedBytes <= client.options.readBudget / 2) {
+                    client.pausedByBudget = false;
+                    updatePaused(client);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the java.net.Socket under a client's socket and any tls wrapping, or null if it has none
+     */
+    @Nullable
+    private static Socket getNetworkSocket(TcpSocketClient client) {
+        AsyncNetworkSocket networkSocket = Util.getWrappedSocket(client.socket, AsyncNetworkSocket.class);
+        if (networkSocket == null) {
+            return null;
+        }
+        Object socket = networkSocket.getSocket();
+        return socket instanceof Socket ? (Socket) socket : null;
+    }
+
+    private void applySocketOptions(TcpSocketClient client) {
+        TcpSocketOptions options = client.options;
+        Socket socket = getNetworkSocket(client);
+        if (socket != null) {
+            try {
+                if (options.noDelay != null) {
+                    socket.setTcpNoDelay(options.noDelay);
+                }
+                if (options.keepAlive != null) {
+                    socket.setKeepAlive(options.keepAlive);
+                }
+                if (options.receiveBufferSize > 0) {
+                    socket.setReceiveBufferSize(options.receiveBufferSize);
+                }
+                if (options.sendBufferSize > 0) {
+                    socket.setSendBufferSize(options.sendBufferSize);
+                }
+            } catch (SocketException se) {
+                TcpSocketListener listener = mListener.get();
+                if (listener != null) {
+                    listener.onError(client.id, "unable to set socket options: " + se.getMessage());
+                }
+            }
+        }
+
+        if (options.timeout > 0) {
+            setTimeout(client.id, options.timeout);
+        }
+    }
+
+    public void setNoDelay(final Integer cId, final boolean noDelay) throws SocketException {
+        TcpSocketClient client = getClient(cId);
+        Socket socket = client != null ? getNetworkSocket(client) : null;
+        if (socket != null) {
+            socket.setTcpNoDelay(noDelay);
+        }
+    }
+
+    /**
+     * The platform offers no way to set the keepalive idle time per socket, so only enabling or disabling it
+     * has an effect.
+     */
+    public void setKeepAlive(final Integer cId, final boolean enable) throws SocketException {
+        TcpSocketClient client = getClient(cId);
+        Socket socket = client != null ? getNetworkSocket(client) : null;
+        if (socket != null) {
+            socket.setKeepAlive(enable);
+        }
+    }
+
+    /**
+     * Sends {@link TcpSocketListener#onTimeout} after the socket has been idle for the given time, or stops
+     * doing so when it is 0. Like node, the socket is left open.
+     */
+    public void setTimeout(final Integer cId, final int timeout) {
+        final TcpSocketClient client = getClient(cId);
+        if (client == null) {
+            return;
+        }
+        client.socket.getServer().post(new Runnable() {
+            @Override
+            public void run() {
+                if (client.pendingIdleCheck != null) {
+                    client.socket.getServer().removeAllCallbacks(client.pendingIdleCheck);
+                    client.pendingIdleCheck = null;
+                }
+                client.idleTimeout = timeout;
+                client.lastActivity = SystemClock.uptimeMillis();
+                if (timeout > 0) {
+                    scheduleIdleCheck(client, timeout);
+                }
+            }
+        });
+    }
+
+    // activity only stamps lastActivity; the check re-arms itself for the rest of the window instead of the
+    // timer being reset on every read and write
+    private void scheduleIdleCheck(final TcpSocketClient client, long delay) {
+        client.pendingIdleCheck = client.socket.getServer().postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                client.pendingIdleCheck = null;
+                if (client.idleTimeout <= 0 || !client.socket.isOpen()) {
+                    return;
+                }
+
+                long idle = SystemClock.uptimeMillis() - client.lastActivity;
+                if (idle >= client.idleTimeout) {
+                    client.lastActivity = SystemClock.uptimeMillis();
+                    TcpSocketListener listener = mListener.get();
+                    if (listener != null) {
+                        listener.onTimeout(client.id);
+                    }
+                    scheduleIdleCheck(client, client.idleTimeout);
+                } else {
+                    scheduleIdleCheck(client, client.idleTimeout - idle);
+                }
+            }
+        }, delay);
+    }
+
+    /**
+     * Sets how long resolved host names, and failed lookups, are reused before they are looked up again.
+     */
+    public void configureDnsCache(long ttl, long negativeTtl) {
+        mResolver.setTtl(ttl, negativeTtl);
+    }
+
+    /**
+     * Replaces the pool inbound chunks are copied into. Chunks larger than bufferSize are always allocated.
+     */
+    public void configureBufferPool(int bufferSize, int maxBuffers) {
+        mBufferPool = new BufferPool(bufferSize, maxBuffers);
+    }
+
+    BufferPool getBufferPool() {
+        return mBufferPool;
+    }
+
+    SocketTracer getTracer() {
+        return mTracer;
+    }
+
+    SocketMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    @Nullable
+    SocketStats getSocketStats(final Integer cId) {
+        TcpSocketClient client = getClient(cId);
+        return client != null ? client.stats : null;
+    }
+
+    /**
+     * @return chunks written from js to a socket so far, or 0 if there is no such socket
+     */
+    long getChunksOut(final Integer cId) {
+        TcpSocketClient client = getClient(cId);
+        return client != null ? client.chunksQueued() : 0;
+    }
+
+    /**
+     * @return bytes a socket has taken from js so far, or 0 if there is no such socket
+     */
+    long getBytesOut(final Integer cId) {
+        TcpSocketClient client = getClient(cId);
+        return client != null ? client.bytesFlushed() : 0;
+    }
+
+    /**
+     * @return the number of connected sockets, not counting listening ones
+     */
+    int getOpenSocketCount() {
+        int count = 0;
+        for (Object client : mClients.values()) {
+            if (client instanceof TcpSocketClient) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    int getListeningSocketCount() {
+        return mClients.size() - getOpenSocketCount();
+    }
+
+    int getPooledSocketCount() {
+        return mPool.size();
+    }
+
+    /**
+     * Calls {@link TcpSocketListener#onStats} every interval milliseconds, or stops when it is 0.
+     */
+    public void setStatsInterval(final int interval) {
+        final AsyncServer server = mServers[0];
+        server.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mPendingStats != null) {
+                    server.removeAllCallbacks(mPendingStats);
+                    mPendingStats = null;
+                }
+                mStatsInterval = interval;
+                if (interval > 0) {
+                    scheduleStats(server);
+                }
+            }
+        });
+    }
+
+    private void scheduleStats(final AsyncServer server) {
+        mPendingStats = server.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                mPendingStats = null;
+                TcpSocketListener listener = mListener.get();
+                if (listener != null) {
+                    listener.onStats();
+                }
+                if (mStatsInterval > 0) {
+                    scheduleStats(server);
+                }
+            }
+        }, mStatsInterval);
+    }
+
+    @Nullable
+    private TcpSocketClient getClient(final Integer cId) {
+        Object client = mClients.get(cId);
+        return client instanceof TcpSocketClient ? (TcpSocketClient) client : null;
+    }
+
+    public void listen(final Integer cId, final @Nullable String host, final Integer port) {
+        listen(cId, host, port, TcpSocketOptions.DEFAULT);
+    }
+
+    /**
+     * Listens with the server options in {@link TcpSocketOptions}: a connection limit, and batched connection
+     * events. AsyncServer binds the socket itself, so the accept backlog and SO_REUSEADDR are left at the
+     * platform defaults.
+     */
+    public void listen(final Integer cId, final @Nullable String host, final Integer port,
+            final TcpSocketOptions options) {
+        if (host == null) {
+            // loopback, as it always was; only a wildcard address passed explicitly listens on every interface
+            try {
+                listen(cId, InetAddress.getByName(null), port, options);
+            } catch (UnknownHostException uhe) {
+                onResolveFailed(cId, "localhost", uhe);
+            }
+            return;
+        }
+
+        mResolver.resolve(host, new DnsResolver.Callback() {
+            @Override
+            public void onResolved(Exception ex, InetAddress[] addresses) {
+                if (ex != null) {
+                    onResolveFailed(cId, host, ex);
+                } else {
+                    listen(cId, addresses[0], port, options);
+                }
+            }
+        });
+    }
 
-                AsyncNetworkSocket socketConverted = Util.getWrappedSocket(socket, AsyncNetworkSocket.class);
-                InetSocketAddress remoteAddress = socketConverted != null ? socketConverted.getRemoteAddress()
-                        : socketAddress;
+    private void listen(final Integer cId, final InetAddress address, final Integer port,
+            final TcpSocketOptions options) {
+        final InetSocketAddress socketAddress = new InetSocketAddress(address, port);
+        final TcpSocketServer server = new TcpSocketServer(cId, options, socketAddress);
+
+        getServer(cId).listen(address, port, new ListenCallback() {
+            @Override
+            public void onListening(AsyncServerSocket socket) {
+                server.socket = socket;
+                mClients.put(cId, server);
 
                 TcpSocketListener listener = mListener.get();
                 if (listener != null) {
-                    listener.onConnection(cId, mInstances, remoteAddress);
+                    listener.onConnect(cId, socketAddress);
                 }
+            }
 
-                mInstances++;
+            @Override
+            public void onAccepted(AsyncSocket socket) {
+                mMetrics.accepted.incrementAndGet();
+                if (!server.isFull()) {
+                    accept(server, socket);
+                } else if (options.queueConnections && server.queued.size() < options.maxConnections) {
+                    // the kernel keeps buffering for it, and its peer sees a slow server rather than a reset
+                    socket.pause();
+                    server.queued.add(socket);
+                } else {
+                    mMetrics.shedConnections.incrementAndGet();
+                    socket.close();
+                }
             }
 
             @Override
             public void onCompleted(Exception ex) {
-                mClients.delete(cId);
+                mClients.remove(cId, server);
 
                 TcpSocketListener listener = mListener.get();
                 if (listener != null) {
@@ -136,100 +791,274 @@ public final class TcpSocketManager {
         });
     }
 
-    public void connect(final Integer cId, final @Nullable String host, final Integer port, final boolean useTls)
-            throws UnknownHostException, IOException {
-        // resolve the address
-        final InetSocketAddress socketAddress;
-        if (host != null) {
-            socketAddress = new InetSocketAddress(InetAddress.getByName(host), port);
-        } else {
-            socketAddress = new InetSocketAddress(port);
+    /**
+     * Registers an accepted socket and announces it, right away or with the server's next batch. Must run on
+     * the server's reactor thread.
+     */
+    private void accept(TcpSocketServer server, AsyncSocket socket) {
+        server.connections++;
+        Integer clientId = mInstances.getAndIncrement();
+        mTracer.instant(SocketTracer.ACCEPT, clientId);
+        TcpSocketClient client = new TcpSocketClient(clientId, socket, server.clientOptions, new SocketStats());
+        client.server = server;
+        mClients.put(clientId, client);
+        setSocketCallbacks(client);
+
+        AsyncNetworkSocket socketConverted = Util.getWrappedSocket(socket, AsyncNetworkSocket.class);
+        InetSocketAddress remoteAddress = socketConverted != null ? socketConverted.getRemoteAddress()
+                : server.address;
+
+        if (server.options.connectionBatchMs <= 0) {
+            // resumes sockets that were queued
+            updatePaused(client);
+            TcpSocketListener listener = mListener.get();
+            if (listener != null) {
+                listener.onConnection(server.id, clientId, remoteAddress);
+            }
+            return;
         }
 
-        mServer.connectSocket(socketAddress, new ConnectCallback() {
-            @Override
-            public void onConnectCompleted(Exception ex, AsyncSocket socket) {
-                if (useTls) {
-                    try {
-                        // critical extension 2.5.29.15 is implemented improperly prior to 4.0.3.
-                        // https://code.google.com/p/android/issues/detail?id=9307
-                        // https://groups.google.com/forum/?fromgroups=#!topic/netty/UCfqPPk5O4s
-                        // certs that use this extension will throw in Cipher.java.
-                        // fallback is to use a custom SSLContext, and hack around the x509 extension.
-                        if (Build.VERSION.SDK_INT <= Build.VERSION_CODES.ICE_CREAM_SANDWICH_MR1)
-                            throw new Exception();
-                        defaultSSLContext = SSLContext.getInstance("Default");
-                    } catch (Exception ex2) {
-                        try {
-                            defaultSSLContext = SSLContext.getInstance("TLS");
-                            TrustManager[] trustAllCerts = new TrustManager[] { new X509TrustManager() {
-                                public java.security.cert.X509Certificate[] getAcceptedIssuers() {
-                                    return new X509Certificate[0];
-                                }
+        // js can't take data for a socket it hasn't heard of yet
+        client.pausedByServer = true;
+        updatePaused(client);
+        server.batch.add(client);
+        server.batchAddresses.add(remoteAddress);
+        if (server.batch.size() >= MAX_CONNECTION_BATCH) {
+            flushConnections(server);
+        } else if (server.pendingBatchFlush == null) {
+            final TcpSocketServer batchServer = server;
+            server.pendingBatchFlush = getServer(server.id).postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    batchServer.pendingBatchFlush = null;
+                    flushConnections(batchServer);
+                }
+            }, server.options.connectionBatchMs);
+        }
+    }
 
-                                public void checkClientTrusted(java.security.cert.X509Certificate[] certs,
-                                        String authType) {
-                                }
+    /**
+     * Announces the server's batched connections in one event and lets them read. Must run on the server's
+     * reactor thread.
+     */
+    private void flushConnections(TcpSocketServer server) {
+        if (server.pendingBatchFlush != null) {
+            getServer(server.id).removeAllCallbacks(server.pendingBatchFlush);
+            server.pendingBatchFlush = null;
+        }
 
-                                public void checkServerTrusted(java.security.cert.X509Certificate[] certs,
-                                        String authType) {
-                                    for (X509Certificate cert : certs) {
-                                        if (cert != null && cert.getCriticalExtensionOIDs() != null)
-                                            cert.getCriticalExtensionOIDs().remove("2.5.29.15");
-                                    }
-                                }
-                            } };
-                            defaultSSLContext.init(null, trustAllCerts, null);
-                        } catch (Exception ex3) {
-                            ex2.printStackTrace();
-                            ex3.printStackTrace();
+        List<Integer> clientIds = new ArrayList<Integer>(server.batch.size());
+        List<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>(server.batch.size());
+        for (int i = 0; i < server.batch.size(); i++) {
+            TcpSocketClient client = server.batch.get(i);
+            // closed while waiting, so js never needs to hear of it
+            if (mClients.get(client.id) == client) {
+                clientIds.add(client.id);
+                addresses.add(server.batchAddresses.get(i));
+            }
+        }
+        List<TcpSocketClient> batch = new ArrayList<TcpSocketClient>(server.batch);
+        server.batch.clear();
+        server.batchAddresses.clear();
+
+        if (!clientIds.isEmpty()) {
+            TcpSocketListener listener = mListener.get();
+            if (listener != null) {
+                listener.onConnections(server.id, clientIds, addresses);
+            }
+        }
+        for (TcpSocketClient client : batch) {
+            client.pausedByServer = false;
+            updatePaused(client);
+        }
+    }
+
+    /**
+     * Makes room for a queued connection, if any are waiting. Must run on the server's reactor thread.
+     */
+    private void onConnectionClosed(TcpSocketServer server) {
+        server.connections--;
+        while (!server.isFull() && !server.queued.isEmpty()) {
+            AsyncSocket socket = server.queued.poll();
+            if (socket.isOpen()) {
+                accept(server, socket);
+            }
+        }
+    }
+
+    /**
+     * Resolves the host without blocking the caller, then races connects to its addresses.
+     */
+    public void connect(final Integer cId, final @Nullable String host, final Integer port, final boolean useTls,
+            final TcpSocketOptions options) {
+        try {
+            MessageFramer.create(options);
+        } catch (IllegalArgumentException iae) {
+            TcpSocketListener listener = mListener.get();
+            if (listener != null) {
+                listener.onError(cId, "invalid framing: " + iae.getMessage());
+            }
+            return;
+        }
+        try {
+            // Deflater would otherwise throw on the reactor thread once the socket is already connected
+            StreamCompressor.validate(options);
+        } catch (IllegalArgumentException iae) {
+            TcpSocketListener listener = mListener.get();
+            if (listener != null) {
+                listener.onError(cId, "invalid compression: " + iae.getMessage());
+            }
+            return;
+        }
+
+        final String poolKey = options.pool && host != null
+                ? ConnectionPool.key(host, port, useTls, options.rejectUnauthorized) : null;
+        if (poolKey != null) {
+            final AsyncSocket pooled = mPool.checkout(poolKey);
+            (pooled != null ? mMetrics.poolHits : mMetrics.poolMisses).incrementAndGet();
+            if (pooled != null) {
+                pooled.getServer().post(new Runnable() {
+                    @Override
+                    public void run() {
+                        // the pool's callbacks close the socket if the peer sent anything since checkout; past this
+                        // check they are replaced before the reactor can run them again
+                        if (pooled.isOpen()) {
+                            // already connected, and for tls already past the handshake
+                            AsyncNetworkSocket networkSocket = Util.getWrappedSocket(pooled, AsyncNetworkSocket.class);
+                            onConnectionCompleted(null, pooled, cId, networkSocket != null
+                                    ? networkSocket.getRemoteAddress() : new InetSocketAddress(host, port), options,
+                                    poolKey, new SocketStats());
+                        } else {
+                            connect(cId, host, port, useTls, options);
                         }
                     }
+                });
+                return;
+            }
+        }
 
-                    try {
-                        trustAllSSLContext = SSLContext.getInstance("TLS");
-                        trustAllManagers = new TrustManager[] { new X509TrustManager() {
-                            public java.security.cert.X509Certificate[] getAcceptedIssuers() {
-                                return new X509Certificate[0];
-                            }
+        if (host == null) {
+            connect(cId, null, Collections.singletonList(new InetSocketAddress(port)), useTls, options, null);
+            return;
+        }
 
-                            public void checkClientTrusted(java.security.cert.X509Certificate[] certs,
-                                    String authType) {
-                            }
+        mTracer.begin(SocketTracer.DNS, cId);
+        mResolver.resolve(host, new DnsResolver.Callback() {
+            @Override
+            public void onResolved(Exception ex, InetAddress[] addresses) {
+                mTracer.end(SocketTracer.DNS, cId);
+                if (ex != null) {
+                    onResolveFailed(cId, host, ex);
+                } else {
+                    connect(cId, host, ConnectionRace.interleave(addresses, port), useTls, options, poolKey);
+                }
+            }
+        });
+    }
 
-                            public void checkServerTrusted(java.security.cert.X509Certificate[] certs,
-                                    String authType) {
-                            }
-                        } };
-                        trustAllSSLContext.init(null, trustAllManagers, null);
-                        // trustAllVerifier = (hostname, session) -> true;
-                    } catch (Exception ex2) {
-                        ex2.printStackTrace();
+    private void onResolveFailed(Integer cId, String host, Exception ex) {
+        TcpSocketListener listener = mListener.get();
+        if (listener != null) {
+            listener.onError(cId, "unable to resolve " + host + ": " + ex.getMessage());
+        }
+    }
+
+    private void connect(final Integer cId, final @Nullable String host, final List<InetSocketAddress> addresses,
+            final boolean useTls, final TcpSocketOptions options, final @Nullable String poolKey) {
+        final AsyncServer server = getServer(cId);
+        final SocketStats stats = new SocketStats();
+        final long connectStart = SystemClock.uptimeMillis();
+        mTracer.begin(SocketTracer.CONNECT, cId);
+        final ConnectionRace connecting = new ConnectionRace(server, addresses, options.connectAttemptDelay,
+                new ConnectionRace.Callback() {
+            @Override
+            public void onCompleted(Exception ex, AsyncSocket socket, final InetSocketAddress socketAddress) {
+                final long connected = SystemClock.uptimeMillis();
+                mTracer.end(SocketTracer.CONNECT, cId);
+                if (ex == null) {
+                    stats.connectMs = connected - connectStart;
+                    mMetrics.connectLatency.record(stats.connectMs);
+                }
+
+                if (useTls) {
+                    if (ex != null) {
+                        onConnectionCompleted(ex, socket, cId, socketAddress, options, poolKey, stats);
+                        return;
                     }
-                    AsyncSSLSocketWrapper.handshake(socket, socketAddress.getHostName(), socketAddress.getPort(),
-                            trustAllSSLContext.createSSLEngine(), trustAllManagers, new HostnameVerifier() {
-                                @Override
-                                public boolean verify(String s, SSLSession sslSession) {
-                                    return true;
-                                }
-                            }, true, new AsyncSSLSocketWrapper.HandshakeCallback() {
+
+                    final SSLEngine engine;
+                    try {
+                        // passing the peer lets the shared context resume an earlier session with it
+                        engine = TlsContexts.get(options.rejectUnauthorized)
+                                .createSSLEngine(tlsHost(host, socketAddress), socketAddress.getPort());
+                    } catch (IllegalStateException ise) {
+                        socket.close();
+                        onConnectionCompleted(ise, null, cId, socketAddress, options, poolKey, stats);
+                        return;
+                    }
+
+                    mTracer.begin(SocketTracer.TLS, cId);
+                    AsyncSSLSocketWrapper.handshake(socket, tlsHost(host, socketAddress), socketAddress.getPort(),
+                            engine,
+                            options.rejectUnauthorized ? null : TlsContexts.TRUST_ALL_MANAGERS,
+                            options.rejectUnauthorized ? null : TlsContexts.TRUST_ALL_VERIFIER,
+                            true, new AsyncSSLSocketWrapper.HandshakeCallback() {
                                 @Override
                                 public void onHandshakeCompleted(Exception e, AsyncSSLSocket socket) {
-                                    onConnectionCompleted(e, socket, cId, socketAddress);
+                                    mTracer.end(SocketTracer.TLS, cId);
+                                    if (e == null) {
+                                        stats.handshakeMs = SystemClock.uptimeMillis() - connected;
+                                        mMetrics.handshakeLatency.record(stats.handshakeMs);
+                                    }
+                                    onConnectionCompleted(e, socket, cId, socketAddress, options, poolKey, stats);
                                 }
                             });
                 } else {
-                    onConnectionCompleted(ex, socket, cId, socketAddress);
+                    onConnectionCompleted(ex, socket, cId, socketAddress, options, poolKey, stats);
                 }
             }
         });
+        connecting.start();
+
+        if (options.connectTimeout > 0) {
+            server.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    // a cancelled connect never calls back, so report it here
+                    if (connecting.cancel()) {
+                        mTracer.end(SocketTracer.CONNECT, cId);
+                        onConnectionCompleted(new TimeoutException("connect timed out"), null, cId,
+                                addresses.get(0), options, poolKey, stats);
+                    }
+                }
+            }, options.connectTimeout);
+        }
+    }
+
+    // the name the caller asked for, so sni and certificate checks never depend on a reverse lookup
+    private static String tlsHost(@Nullable String host, InetSocketAddress socketAddress) {
+        return host != null ? host : socketAddress.getHostName();
     }
 
-    private void onConnectionCompleted(Exception ex, AsyncSocket socket, Integer cId, InetSocketAddress socketAddress) {
+    private void onConnectionCompleted(Exception ex, AsyncSocket socket, Integer cId, InetSocketAddress socketAddress,
+            TcpSocketOptions options, @Nullable String poolKey, SocketStats stats) {
         TcpSocketListener listener = mListener.get();
-        mClients.put(cId, socket);
+        (ex == null ? mMetrics.connects : mMetrics.connectFailures).incrementAndGet();
+        if (ex == null && mShutdown) {
+            // finished connecting after the teardown, so nothing would ever close it
+            socket.close();
+            return;
+        }
         if (ex == null) {
-            setSocketCallbacks(cId, socket);
+            TcpSocketClient client = new TcpSocketClient(cId, socket, options, stats);
+            client.poolKey = poolKey;
+            client.framer = MessageFramer.create(options);
+            if (options.compress) {
+                client.compressor = new StreamCompressor(options.compressionLevel, options.compressionDictionary);
+            }
+            mClients.put(cId, client);
+            setSocketCallbacks(client);
+            applySocketOptions(client);
 
             if (listener != null) {
                 listener.onConnect(cId, socketAddress);
@@ -243,17 +1072,25 @@ public final class TcpSocketManager {
     }
 
     public void upgradeToSecure(final Integer cId, String host, Integer port, final Callback callback) {
-        Object existingSocket = mClients.get(cId);
-        if (existingSocket != null && existingSocket instanceof AsyncSocket) {
-            AsyncSSLSocketWrapper.handshake((AsyncSocket) existingSocket, host, port,
-                    AsyncSSLSocketWrapper.getDefaultSSLContext().createSSLEngine(), null, null, true,
+        Object existingClient = mClients.get(cId);
+        if (existingClient != null && existingClient instanceof TcpSocketClient) {
+            final TcpSocketClient client = (TcpSocketClient) existingClient;
+            final long handshakeStart = SystemClock.uptimeMillis();
+            mTracer.begin(SocketTracer.TLS, cId);
+            AsyncSSLSocketWrapper.handshake(client.socket, host, port,
+                    AsyncSSLSocketWrapper.getDefaultSSLContext().createSSLEngine(host, port), null, null, true,
                     new AsyncSSLSocketWrapper.HandshakeCallback() {
                         @Override
                         public void onHandshakeCompleted(Exception ex, AsyncSSLSocket upgradedSocket) {
+                            mTracer.end(SocketTracer.TLS, cId);
                             TcpSocketListener listener = mListener.get();
-                            mClients.put(cId, upgradedSocket);
                             if (ex == null) {
-                                setSocketCallbacks(cId, upgradedSocket);
+                                client.stats.handshakeMs = SystemClock.uptimeMillis() - handshakeStart;
+                                mMetrics.handshakeLatency.record(client.stats.handshakeMs);
+                                client.socket = upgradedSocket;
+                                // pooled under its plain key, so it must not go back once upgraded
+                                client.poolKey = null;
+                                setSocketCallbacks(client);
                                 if (listener != null) {
                                     listener.onSecureConnect(cId);
                                 }
@@ -271,20 +1108,404 @@ public final class TcpSocketManager {
         }
     }
 
-    public void write(final Integer cId, final byte[] data) {
-        Object socket = mClients.get(cId);
-        if (socket != null && socket instanceof AsyncSocket) {
-            ((AsyncSocket) socket).write(new ByteBufferList(data));
+    public void write(final Integer cId, final byte[] data, final @Nullable Callback callback) {
+        write(cId, Collections.singletonList(data), callback);
+    }
+
+    /**
+     * Queues chunks for a single gathered write on the reactor thread. The callback runs once every chunk has
+     * been taken by the socket.
+     */
+    public void write(final Integer cId, final List<byte[]> chunks, final @Nullable Callback callback) {
+        final TcpSocketClient client = getClient(cId);
+        if (client == null) {
+            if (callback != null) {
+                callback.invoke();
+            }
+            return;
+        }
+
+        if (client.enqueue(chunks, callback)) {
+            client.socket.getServer().post(new Runnable() {
+                @Override
+                public void run() {
+                    drainWrites(client);
+                }
+            });
+        }
+    }
+
+    /**
+     * Hands queued writes to the socket and completes the batches it took. Must run on the reactor thread;
+     * whatever the socket cannot take yet is retried from its writeable callback.
+     */
+    private void drainWrites(TcpSocketClient client) {
+        mTracer.instant(SocketTracer.WRITE, client.id);
+        long flushed = client.bytesFlushed();
+        if (client.fileSender == null) {
+            client.takeQueued();
+        }
+        if (client.compressor != null) {
+            writeCompressed(client);
+        } else {
+            int before = client.pendingWrite.remaining();
+            if (before > 0) {
+                client.socket.write(client.pendingWrite);
+            }
+            trackTls(client, before - client.pendingWrite.remaining());
+        }
+
+        List<Callback> completed = client.takeCompleted();
+        mMetrics.bytesOut.addAndGet(client.bytesFlushed() - flushed);
+        if (completed != null) {
+            client.lastActivity = SystemClock.uptimeMillis();
+            for (Callback callback : completed) {
+                callback.invoke();
+            }
+        }
+
+        if (client.fileSender != null && !client.pendingWrite.hasRemaining() && !client.compressedWrite.hasRemaining()) {
+            sendFile(client);
+            return;
+        }
+
+        if (client.ending) {
+            shutdownOutput(client);
+        }
+    }
+
+    /**
+     * Compresses whatever has been taken from the write queue and writes it out. Must run on the reactor thread.
+     */
+    private void writeCompressed(TcpSocketClient client) {
+        int taken = client.pendingWrite.remaining();
+        if (taken > 0) {
+            client.stats.compressedBytesOut += client.compressor.deflate(client.pendingWrite, client.compressedWrite);
+            client.compressedPending += taken;
+        }
+        if (client.compressedWrite.hasRemaining()) {
+            client.socket.write(client.compressedWrite);
+        }
+        // with tls, the compressed bytes are only sent once the wrapper's sink is empty too
+        if (!client.compressedWrite.hasRemaining() && TlsSink.remaining(client.socket) == 0) {
+            client.compressedPending = 0;
+        }
+    }
+
+    /**
+     * Keeps plaintext the tls wrapper has encrypted but not sent counted as buffered, so write callbacks and
+     * {@link #shutdownOutput} wait for it. The wrapper only takes plaintext while its sink is empty, so taking
+     * any means everything before it has been sent. Must run on the reactor thread.
+     */
+    private static void trackTls(TcpSocketClient client, long taken) {
+        if (TlsSink.remaining(client.socket) == 0) {
+            client.tlsPending = 0;
+        } else if (taken > 0) {
+            client.tlsPending = taken;
+        }
+    }
+
+    /**
+     * Streams part of a file to the socket, after anything written before. Writes made meanwhile are sent once
+     * the file is done.
+     *
+     * @param length bytes to send, or -1 for the rest of the file
+     */
+    public void sendFile(final Integer cId, String path, long offset, long length, final @Nullable Callback callback) {
+        final TcpSocketClient client = getClient(cId);
+        if (client == null) {
+            if (callback != null) {
+                callback.invoke("unable to find socket");
+            }
+            return;
+        }
+
+        final FileChannel file;
+        try {
+            file = new FileInputStream(path).getChannel();
+            long size = file.size();
+            if (offset < 0 || offset > size || length > size - offset) {
+                file.close();
+                throw new IOException("range " + offset + "+" + length + " is outside " + path);
+            }
+            if (length < 0) {
+                length = size - offset;
+            }
+        } catch (IOException ioe) {
+            if (callback != null) {
+                callback.invoke(ioe.getMessage());
+            }
+            return;
+        }
+
+        final long fileOffset = offset;
+        final long fileLength = length;
+        client.socket.getServer().post(new Runnable() {
+            @Override
+            public void run() {
+                if (client.fileSender != null || !client.socket.isOpen()) {
+                    try {
+                        file.close();
+                    } catch (IOException ioe) {
+                        // only ever read from, so there is nothing to lose
+                    }
+                    if (callback != null) {
+                        callback.invoke(client.fileSender != null ? "already sending a file" : "socket closed");
+                    }
+                    return;
+                }
+
+                // the kernel can only copy straight to the socket when nothing wraps it, like tls or compression
+                WritableByteChannel direct = null;
+                if (client.socket instanceof AsyncNetworkSocket && client.compressor == null) {
+                    Socket socket = getNetworkSocket(client);
+                    direct = socket != null ? socket.getChannel() : null;
+                }
+
+                // writes from before the file go out first
+                client.takeQueued();
+                client.fileSender = new FileSender(file, fileOffset, fileLength, direct, client.compressor, callback);
+                drainWrites(client);
+            }
+        });
+    }
+
+    /**
+     * Continues a file transfer once everything written before it is out. Must run on the reactor thread.
+     */
+    private void sendFile(TcpSocketClient client) {
+        FileSender sender = client.fileSender;
+        boolean done;
+        try {
+            done = sender.send(client.socket);
+        } catch (IOException ioe) {
+            // the peer got part of the file, so the stream can't be trusted any more
+            finishFile(client, "unable to send file: " + ioe.getMessage());
+            client.socket.close();
+            return;
+        }
+
+        long sent = sender.getBytesSent();
+        if (done || sent - sender.lastProgress >= FILE_PROGRESS_BYTES) {
+            sender.lastProgress = sent;
+            client.lastActivity = SystemClock.uptimeMillis();
+            TcpSocketListener listener = mListener.get();
+            if (listener != null) {
+                listener.onFileProgress(client.id, sent, sender.getLength());
+            }
+        }
+
+        if (done) {
+            finishFile(client, null);
+            // picks up writes that waited for the file
+            drainWrites(client);
+        }
+    }
+
+    private void finishFile(TcpSocketClient client, @Nullable String error) {
+        FileSender sender = client.fileSender;
+        client.fileSender = null;
+        sender.close();
+        if (sender.callback != null) {
+            if (error != null) {
+                sender.callback.invoke(error);
+            } else {
+                sender.callback.invoke();
+            }
+        }
+    }
+
+    /**
+     * @return bytes written to the socket that it has not taken yet, or 0 if there is no such socket
+     */
+    public long getBufferSize(final Integer cId) {
+        TcpSocketClient client = getClient(cId);
+        return client != null ? client.bufferSize() : 0;
+    }
+
+    /**
+     * Ends a socket once everything written to it has gone out: pooled sockets with nothing left to deliver go
+     * back to the pool, others stop sending but read on until the peer closes its side too.
+     */
+    public void end(final Integer cId) {
+        final TcpSocketClient client = getClient(cId);
+        if (client == null) {
+            close(cId);
+            return;
+        }
+
+        client.socket.getServer().post(new Runnable() {
+            @Override
+            public void run() {
+                client.ending = true;
+                shutdownOutput(client);
+            }
+        });
+    }
+
+    /**
+     * Half closes an ending client, unless writes are still pending, in which case {@link #drainWrites} calls
+     * back once they are done. Must run on the reactor thread.
+     */
+    private void shutdownOutput(TcpSocketClient client) {
+        // tls records, file chunks included, can still be waiting in the wrapper once the socket has taken
+        // everything; its writeable callback runs drainWrites again once they are sent
+        if (client.outputShutdown || !client.socket.isOpen() || client.bufferSize() > 0
+                || client.fileSender != null || TlsSink.remaining(client.socket) > 0) {
+            return;
+        }
+        if (client.poolKey != null && releaseToPool(client)) {
+            return;
+        }
+
+        AsyncSSLSocketWrapper tls = Util.getWrappedSocket(client.socket, AsyncSSLSocketWrapper.class);
+        if (tls != null && !client.closeNotifySent) {
+            // so the peer can tell the end of the stream from a truncation; inbound data is still decrypted
+            client.closeNotifySent = true;
+            tls.getSSLEngine().closeOutbound();
+            tls.write(new ByteBufferList());
+            if (TlsSink.remaining(client.socket) > 0) {
+                return;
+            }
+        }
+
+        client.outputShutdown = true;
+        Socket networkSocket = getNetworkSocket(client);
+        if (networkSocket == null || client.remoteEnded) {
+            client.socket.close();
+            return;
+        }
+        try {
+            networkSocket.shutdownOutput();
+        } catch (IOException ioe) {
+            client.socket.close();
+        }
+    }
+
+    /**
+     * Aborts a socket with a reset, dropping whatever it has not sent yet.
+     */
+    public void destroy(final Integer cId) {
+        final TcpSocketClient client = getClient(cId);
+        if (client == null) {
+            close(cId);
+            return;
+        }
+
+        client.socket.getServer().post(new Runnable() {
+            @Override
+            public void run() {
+                reset(client);
+            }
+        });
+    }
+
+    /**
+     * Must run on the reactor thread.
+     */
+    private static void reset(TcpSocketClient client) {
+        if (!client.socket.isOpen()) {
+            return;
+        }
+        Socket networkSocket = getNetworkSocket(client);
+        if (networkSocket != null) {
+            try {
+                // a reset, so nothing lingers in the kernel after the socket is gone
+                networkSocket.setSoLinger(true, 0);
+            } catch (SocketException se) {
+                // closing still frees it, just not as abruptly
+            }
+        }
+        client.socket.close();
+    }
+
+    /**
+     * Parks a client's socket in the pool and reports it closed to js. Must run on the reactor thread.
+     */
+    private boolean releaseToPool(final TcpSocketClient client) {
+        final AsyncSocket socket = client.socket;
+        if (!socket.isOpen() || client.remoteEnded || client.bufferSize() > 0 || client.readBuffer.hasRemaining()
+                || client.fileSender != null || client.fileReceiver != null || client.compressor != null
+                || client.pausedByUser || client.pausedByBudget
+                // mid message: the next user would get the rest of it first. The framer's buffers go back once the
+                // socket closes instead
+                || (client.framer != null && client.framer.getBuffered() > 0)) {
+            return false;
+        }
+
+        final ConnectionPool.Entry entry = mPool.add(client.poolKey, socket, client.options.poolMaxSockets);
+        if (entry == null) {
+            return false;
+        }
+
+        mClients.remove(client.id, client);
+        if (client.pendingReadFlush != null) {
+            socket.getServer().removeAllCallbacks(client.pendingReadFlush);
+            client.pendingReadFlush = null;
+        }
+        if (client.pendingIdleCheck != null) {
+            socket.getServer().removeAllCallbacks(client.pendingIdleCheck);
+            client.pendingIdleCheck = null;
+        }
+
+        // health check: an idle socket that hears anything from its peer, even eof, is out of sync with it. That
+        // holds until a connect takes it over on the reactor, even once it has been checked out
+        socket.setDataCallback(new DataCallback() {
+            @Override
+            public void onDataAvailable(DataEmitter emitter, ByteBufferList bb) {
+                bb.recycle();
+                retire(entry);
+            }
+        });
+        socket.setEndCallback(new CompletedCallback() {
+            @Override
+            public void onCompleted(Exception ex) {
+                retire(entry);
+            }
+        });
+        socket.setClosedCallback(new CompletedCallback() {
+            @Override
+            public void onCompleted(Exception ex) {
+                mPool.remove(entry);
+            }
+        });
+        socket.setWriteableCallback(null);
+        socket.getServer().postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                evict(entry);
+            }
+        }, client.options.poolIdleTimeout);
+
+        TcpSocketListener listener = mListener.get();
+        if (listener != null) {
+            listener.onClose(client.id, null);
+        }
+        return true;
+    }
+
+    private void evict(ConnectionPool.Entry entry) {
+        if (mPool.remove(entry)) {
+            entry.socket.close();
         }
     }
 
+    /**
+     * Closes a pooled socket whose peer spoke up, even if a connect has just checked it out. Must run on the
+     * reactor thread.
+     */
+    private void retire(ConnectionPool.Entry entry) {
+        mPool.remove(entry);
+        entry.socket.close();
+    }
+
     public void close(final Integer cId) {
         Object socket = mClients.get(cId);
         if (socket != null) {
-            if (socket instanceof AsyncSocket) {
-                ((AsyncSocket) socket).close();
-            } else if (socket instanceof AsyncServerSocket) {
-                ((AsyncServerSocket) socket).stop();
+            if (socket instanceof TcpSocketClient) {
+                ((TcpSocketClient) socket).socket.close();
+            } else if (socket instanceof TcpSocketServer) {
+                stopServer((TcpSocketServer) socket);
             }
         } else {
             TcpSocketListener listener = mListener.get();
@@ -294,10 +1515,165 @@ public final class TcpSocketManager {
         }
     }
 
+    private void stopServer(final TcpSocketServer server) {
+        getServer(server.id).post(new Runnable() {
+            @Override
+            public void run() {
+                server.socket.stop();
+                for (AsyncSocket socket : server.queued) {
+                    socket.close();
+                }
+                server.queued.clear();
+                // already accepted, so js still has to hear of them to be able to close them
+                flushConnections(server);
+            }
+        });
+    }
+
+    /**
+     * Closes every socket and stops the private reactors, without waiting for the sockets to finish closing.
+     */
     public void closeAllSockets() {
-        for (int i = 0; i < mClients.size(); i++) {
-            close(mClients.keyAt(i));
+        shutdown(0, null);
+    }
+
+    /**
+     * Like {@link #closeAllSockets(long, Runnable)}, but also stops periodic stats, turns away connects still in
+     * flight and stops the private reactors once every socket is closed. The manager can't be used afterwards.
+     */
+    public void shutdown(long timeoutMs, @Nullable final Runnable onComplete) {
+        mShutdown = true;
+        setStatsInterval(0);
+        closeAllSockets(timeoutMs, new Runnable() {
+            @Override
+            public void run() {
+                if (mOwnsServers) {
+                    for (AsyncServer server : mServers) {
+                        server.stop();
+                    }
+                }
+                if (onComplete != null) {
+                    onComplete.run();
+                }
+            }
+        });
+    }
+
+    /**
+     * Tears every socket down in parallel on their reactors without blocking the caller. Servers stop accepting
+     * straight away, connected sockets are half closed so their peers can finish, and whatever is still open after
+     * timeoutMs is aborted with a reset. onComplete runs on a reactor thread once every socket is closed.
+     */
+    public void closeAllSockets(long timeoutMs, @Nullable Runnable onComplete) {
+        for (AsyncSocket socket : mPool.clear()) {
+            socket.close();
+        }
+
+        // a snapshot, as sockets leave mClients while they close
+        final Teardown teardown = new Teardown(onComplete);
+        for (Object socket : new ArrayList<Object>(mClients.values())) {
+            if (socket instanceof TcpSocketClient) {
+                teardown.open.add((TcpSocketClient) socket);
+            } else if (socket instanceof TcpSocketServer) {
+                TcpSocketServer server = (TcpSocketServer) socket;
+                mClients.remove(server.id, server);
+                stopServer(server);
+            }
+        }
+        if (teardown.open.isEmpty()) {
+            teardown.finish();
+            return;
+        }
+
+        mTeardowns.add(teardown);
+        for (final TcpSocketClient client : teardown.open) {
+            if (timeoutMs <= 0) {
+                abort(client, teardown);
+                continue;
+            }
+
+            client.socket.getServer().post(new Runnable() {
+                @Override
+                public void run() {
+                    halfClose(client, teardown);
+                }
+            });
+        }
+        if (timeoutMs > 0) {
+            mServers[0].postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    for (TcpSocketClient client : teardown.open) {
+                        abort(client, teardown);
+                    }
+                }
+            }, timeoutMs);
+        }
+    }
+
+    /**
+     * Stops sending once queued writes have gone out and waits for the peer to close its side. Must run on the
+     * client's reactor thread.
+     */
+    private void halfClose(TcpSocketClient client, Teardown teardown) {
+        AsyncSocket socket = client.socket;
+        if (!socket.isOpen()) {
+            teardown.closed(client);
+            return;
+        }
+
+        // nobody is left to hear what the peer still sends, but reading on is how its close shows up
+        socket.setDataCallback(new DataCallback() {
+            @Override
+            public void onDataAvailable(DataEmitter emitter, ByteBufferList bb) {
+                bb.recycle();
+            }
+        });
+        socket.resume();
+
+        // ends like end() does, once everything queued has gone out, but never back into the pool
+        client.poolKey = null;
+        client.ending = true;
+        shutdownOutput(client);
+    }
+
+    private void abort(final TcpSocketClient client, final Teardown teardown) {
+        client.socket.getServer().post(new Runnable() {
+            @Override
+            public void run() {
+                reset(client);
+                teardown.closed(client);
+            }
+        });
+    }
+
+    /**
+     * The sockets of one {@link #closeAllSockets(long, Runnable)} call that haven't closed yet.
+     */
+    private final class Teardown {
+        final Set<TcpSocketClient> open =
+                Collections.newSetFromMap(new ConcurrentHashMap<TcpSocketClient, Boolean>());
+        private final AtomicBoolean mDone = new AtomicBoolean();
+        @Nullable
+        private final Runnable mOnComplete;
+
+        Teardown(@Nullable Runnable onComplete) {
+            mOnComplete = onComplete;
+        }
+
+        void closed(TcpSocketClient client) {
+            if (open.remove(client) && open.isEmpty()) {
+                finish();
+            }
+        }
+
+        void finish() {
+            if (mDone.compareAndSet(false, true)) {
+                mTeardowns.remove(this);
+                if (mOnComplete != null) {
+                    mOnComplete.run();
+                }
+            }
         }
-        mClients.clear();
     }
 }
@@ -0,0 +1,126 @@
+package com.peel.react;
+
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.ReadableMap;
+
+/**
+ * Per-socket options passed from js to {@link TcpSocketManager#connect}, and to {@link TcpSocketManager#listen}
+ * for servers.
+ */
+final class TcpSocketOptions {
+    static final TcpSocketOptions DEFAULT = new TcpSocketOptions();
+
+    // deliver and accept data as latin1 text, one char per byte, instead of base64
+    boolean latin1 = false;
+
+    // when > 0, inbound chunks are held for up to this long and delivered as one data event
+    int coalesceMs = 0;
+    // a held buffer is delivered early once it reaches this many bytes
+    int coalesceBytes = 64 * 1024;
+
+    // when > 0, reading pauses once this many delivered bytes are still unacknowledged by js
+    int readBudget = 0;
+
+    // verify the peer's certificate for tls connections; off by default to match earlier releases
+    boolean rejectUnauthorized = false;
+
+    // socket options, null or 0 leaves the platform default in place
+    @Nullable Boolean noDelay;
+    @Nullable Boolean keepAlive;
+    int receiveBufferSize = 0;
+    int sendBufferSize = 0;
+
+    // when > 0, a connect that has not completed after this long fails
+    int connectTimeout = 0;
+    // head start each connect attempt gets before the next address is tried, as recommended by RFC 8305
+    int connectAttemptDelay = 250;
+    // when > 0, a timeout event is sent after this long without reads or writes
+    int timeout = 0;
+
+    // reuse idle sockets to the same host, port and tls configuration instead of opening new ones
+    boolean pool = false;
+    // idle sockets kept per host, port and tls configuration
+    int poolMaxSockets = 4;
+    // idle sockets are closed after this long
+    int poolIdleTimeout = 30 * 1000;
+
+    // split inbound data into message events: "length", "delimiter" or "fixed", or null for plain data events
+    @Nullable String framing;
+    // length prefix size in bytes, 1, 2, 4 or 8, big endian unless littleEndian is set
+    int lengthBytes = 4;
+    boolean littleEndian = false;
+    // latin1 string separating delimited messages
+    byte[] delimiter = { '\n' };
+    // size of fixed size messages
+    int frameSize = 0;
+    // larger messages, or this much data without a delimiter, are an error
+    int maxMessageSize = 8 * 1024 * 1024;
+
+    // compress the stream both ways as zlib, like node's zlib.createDeflate and createInflate
+    boolean compress = false;
+    // 0 to 9, or -1 for zlib's default
+    int compressionLevel = -1;
+    // latin1 preset dictionary both ends agree on, for short messages with repetitive content
+    @Nullable byte[] compressionDictionary;
+
+    // on eof from the peer, emit an end event and keep the socket open for writing until it is ended, instead of
+    // closing it; servers pass this on to the connections they accept
+    boolean allowHalfOpen = false;
+
+    // servers: when > 0, connections accepted past this many open ones are closed, or queued
+    int maxConnections = 0;
+    // hold connections over the limit, paused, until open ones close instead of closing them
+    boolean queueConnections = false;
+    // when > 0, connections accepted within this long are announced to js in one event
+    int connectionBatchMs = 0;
+
+    static TcpSocketOptions fromReadableMap(@Nullable ReadableMap map) {
+        TcpSocketOptions options = new TcpSocketOptions();
+        if (map == null) {
+            return options;
+        }
+
+        options.latin1 = getBoolean(map, "latin1", options.latin1);
+        options.coalesceMs = getInt(map, "coalesceMs", options.coalesceMs);
+        options.coalesceBytes = getInt(map, "coalesceBytes", options.coalesceBytes);
+        options.readBudget = getInt(map, "readBudget", options.readBudget);
+        options.rejectUnauthorized = getBoolean(map, "rejectUnauthorized", options.rejectUnauthorized);
+        options.noDelay = map.hasKey("noDelay") && !map.isNull("noDelay") ? map.getBoolean("noDelay") : null;
+        options.keepAlive = map.hasKey("keepAlive") && !map.isNull("keepAlive") ? map.getBoolean("keepAlive") : null;
+        options.receiveBufferSize = getInt(map, "receiveBufferSize", options.receiveBufferSize);
+        options.sendBufferSize = getInt(map, "sendBufferSize", options.sendBufferSize);
+        options.connectTimeout = getInt(map, "connectTimeout", options.connectTimeout);
+        options.connectAttemptDelay = getInt(map, "connectAttemptDelay", options.connectAttemptDelay);
+        options.timeout = getInt(map, "timeout", options.timeout);
+        options.pool = getBoolean(map, "pool", options.pool);
+        options.poolMaxSockets = getInt(map, "poolMaxSockets", options.poolMaxSockets);
+        options.poolIdleTimeout = getInt(map, "poolIdleTimeout", options.poolIdleTimeout);
+        options.framing = map.hasKey("framing") && !map.isNull("framing") ? map.getString("framing") : null;
+        options.lengthBytes = getInt(map, "lengthBytes", options.lengthBytes);
+        options.littleEndian = getBoolean(map, "littleEndian", options.littleEndian);
+        if (map.hasKey("delimiter") && !map.isNull("delimiter")) {
+            options.delimiter = map.getString("delimiter").getBytes(TcpSockets.LATIN1);
+        }
+        options.frameSize = getInt(map, "frameSize", options.frameSize);
+        options.maxMessageSize = getInt(map, "maxMessageSize", options.maxMessageSize);
+        options.compress = getBoolean(map, "compress", options.compress);
+        options.compressionLevel = getInt(map, "compressionLevel", options.compressionLevel);
+        if (map.hasKey("compressionDictionary") && !map.isNull("compressionDictionary")) {
+            options.compressionDictionary = map.getString("compressionDictionary").getBytes(TcpSockets.LATIN1);
+        }
+        options.allowHalfOpen = getBoolean(map, "allowHalfOpen", options.allowHalfOpen);
+        options.maxConnections = getInt(map, "maxConnections", options.maxConnections);
+        options.queueConnections = getBoolean(map, "queueConnections", options.queueConnections);
+        options.connectionBatchMs = getInt(map, "connectionBatchMs", options.connectionBatchMs);
+        return options;
+    }
+
+    private static int getInt(ReadableMap map, String key, int fallback) {
+        return map.hasKey(key) && !map.isNull(key) ? map.getInt(key) : fallback;
+    }
+
+    private static boolean getBoolean(ReadableMap map, String key, boolean fallback) {
+        return map.hasKey(key) && !map.isNull(key) ? map.getBoolean(key) : fallback;
+    }
+}
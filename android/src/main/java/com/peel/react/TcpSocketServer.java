@@ -0,0 +1,48 @@
+package com.peel.react;
+
+import com.koushikdutta.async.AsyncServerSocket;
+import com.koushikdutta.async.AsyncSocket;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/**
+ * A listening socket tracked by {@link TcpSocketManager}, with the connections it has accepted. Apart from the
+ * final fields, everything here is only touched on the server's reactor thread.
+ */
+final class TcpSocketServer {
+    final Integer id;
+    final TcpSocketOptions options;
+    // what accepted connections are opened with
+    final TcpSocketOptions clientOptions;
+    final InetSocketAddress address;
+
+    AsyncServerSocket socket;
+
+    // accepted connections that are still open
+    int connections;
+    // connections over options.maxConnections, paused until there is room for them
+    final ArrayDeque<AsyncSocket> queued = new ArrayDeque<AsyncSocket>();
+
+    // accepted connections not announced to js yet, paused until they are
+    final ArrayList<TcpSocketClient> batch = new ArrayList<TcpSocketClient>();
+    final ArrayList<InetSocketAddress> batchAddresses = new ArrayList<InetSocketAddress>();
+    Object pendingBatchFlush;
+
+    TcpSocketServer(Integer id, TcpSocketOptions options, InetSocketAddress address) {
+        this.id = id;
+        this.options = options;
+        this.address = address;
+        if (options.allowHalfOpen) {
+            clientOptions = new TcpSocketOptions();
+            clientOptions.allowHalfOpen = true;
+        } else {
+            clientOptions = TcpSocketOptions.DEFAULT;
+        }
+    }
+
+    boolean isFull() {
+        return options.maxConnections > 0 && connections >= options.maxConnections;
+    }
+}
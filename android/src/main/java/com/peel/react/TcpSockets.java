@@ -6,17 +6,22 @@
 package com.peel.react;
 
 import androidx.annotation.Nullable;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Base64;
 
 import com.facebook.common.logging.FLog;
 import com.facebook.react.bridge.Arguments;
 import com.facebook.react.bridge.Callback;
-import com.facebook.react.bridge.GuardedAsyncTask;
+import com.facebook.react.bridge.Dynamic;
+import com.facebook.react.bridge.GuardedRunnable;
 import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.ReactContext;
 import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
+import com.facebook.react.bridge.ReadableArray;
 import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.WritableArray;
 import com.facebook.react.bridge.WritableMap;
 import com.facebook.react.modules.core.DeviceEventManagerModule;
 
@@ -24,26 +29,73 @@ import java.io.IOException;
 import java.net.InetAddress;
 import java.net.Inet6Address;
 import java.net.InetSocketAddress;
-import java.net.UnknownHostException;
-import java.util.concurrent.ExecutionException;
+import java.net.SocketException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * The NativeModule acting as an api layer for {@link TcpSocketManager}
  */
 public final class TcpSockets extends ReactContextBaseJavaModule implements TcpSocketListener {
     private static final String TAG = "TcpSockets";
+    static final Charset LATIN1 = Charset.forName("ISO-8859-1");
+    private static final char[] BASE64_ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    // onData runs on reactor threads, each of which keeps its own encode buffer
+    private static final ThreadLocal<char[]> sEncodeBuffer = new ThreadLocal<char[]>();
+    // larger chunks get a buffer of their own, so one big read doesn't pin its size on the thread
+    private static final int MAX_CACHED_ENCODE_CHARS = 64 * 1024;
+
+    private static final int EXECUTOR_THREADS = 2;
+    // writes up to this many encoded chars are decoded on the calling thread when nothing is pending for the socket
+    private static final int INLINE_WRITE_LIMIT = 16 * 1024;
+
+    // sockets still open this long into a teardown are reset
+    private static final long TEARDOWN_TIMEOUT_MS = 2000;
+    // batched events are flushed at this many, whatever the window
+    private static final int MAX_BATCH_EVENTS = 256;
 
     private boolean mShuttingDown = false;
     private TcpSocketManager socketManager;
+    private final SocketTracer mTracer = new SocketTracer();
+    private final SocketExecutor mExecutor = new SocketExecutor(EXECUTOR_THREADS, mTracer);
+    // getStats and the stats event each measure the accept rate since their own previous read
+    private final SocketMetrics.RateReader mGetStatsAcceptRate = new SocketMetrics.RateReader();
+    private final SocketMetrics.RateReader mStatsEventAcceptRate = new SocketMetrics.RateReader();
 
     private ReactContext mReactContext;
 
+    private final Handler mBatchHandler = new Handler(Looper.getMainLooper());
+    private final Object mBatchLock = new Object();
+    private volatile int mBatchWindow;
+    // guarded by mBatchLock
+    private WritableArray mBatch;
+    private int mBatchSize;
+    private boolean mBatchScheduled;
+
+    private final Runnable mFlushBatch = new Runnable() {
+        @Override
+        public void run() {
+            flushEvents();
+        }
+    };
+
     public TcpSockets(ReactApplicationContext reactContext) {
+        this(reactContext, 0);
+    }
+
+    /**
+     * @param reactorCount number of private reactor threads for this module's sockets, or 0 to use the app wide
+     *                     default reactor
+     */
+    public TcpSockets(ReactApplicationContext reactContext, int reactorCount) {
         super(reactContext);
         mReactContext = reactContext;
 
         try {
-            socketManager = new TcpSocketManager(this);
+            socketManager = new TcpSocketManager(this, reactorCount, mTracer);
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -62,119 +114,506 @@ public final class TcpSockets extends ReactContextBaseJavaModule implements TcpS
     @Override
     public void onCatalystInstanceDestroy() {
         mShuttingDown = true;
+        synchronized (mBatchLock) {
+            mBatchHandler.removeCallbacks(mFlushBatch);
+            mBatchScheduled = false;
+            mBatch = null;
+            mBatchSize = 0;
+        }
 
-        try {
-            new GuardedAsyncTask<Void, Void>(getReactApplicationContext()) {
-                @Override
-                protected void doInBackgroundGuarded(Void... params) {
-                    socketManager.closeAllSockets();
-                }
-            }.execute().get();
-        } catch (InterruptedException ioe) {
-            FLog.e(TAG, "onCatalystInstanceDestroy", ioe);
-        } catch (ExecutionException ee) {
-            FLog.e(TAG, "onCatalystInstanceDestroy", ee);
+        // returns straight away; reloads shouldn't wait on peers that are slow to close
+        socketManager.shutdown(TEARDOWN_TIMEOUT_MS, new Runnable() {
+            @Override
+            public void run() {
+                FLog.i(TAG, "all sockets closed");
+            }
+        });
+        mExecutor.shutdown();
+    }
+
+    private void execute(Integer cId, Runnable task) {
+        mExecutor.execute(cId, task);
+    }
+
+    /**
+     * Runs a cheap call on the calling thread when it can't overtake earlier calls for the same socket.
+     */
+    private void executeInline(Integer cId, int size, Runnable task) {
+        if (size <= INLINE_WRITE_LIMIT && mExecutor.isIdle(cId)) {
+            mTracer.begin(SocketTracer.BRIDGE_RUN, cId);
+            task.run();
+            mTracer.end(SocketTracer.BRIDGE_RUN, cId);
+        } else {
+            mExecutor.execute(cId, task);
         }
     }
 
     private void sendEvent(String eventName, WritableMap params) {
+        socketManager.getMetrics().eventsEmitted.incrementAndGet();
+        if (mBatchWindow <= 0) {
+            emit(eventName, params);
+            return;
+        }
+
+        WritableMap event = Arguments.createMap();
+        event.putString("type", eventName);
+        event.putMap("body", params);
+        // errors and closes can't wait for the window, and flushing everything queued before them keeps each
+        // socket's events in order
+        boolean urgent = "error".equals(eventName) || "close".equals(eventName);
+        synchronized (mBatchLock) {
+            // batching was turned off since the check above, and what was queued before has been flushed
+            if (mBatchWindow <= 0) {
+                emit(eventName, params);
+                return;
+            }
+            if (mBatch == null) {
+                mBatch = Arguments.createArray();
+            }
+            mBatch.pushMap(event);
+            mBatchSize++;
+            if (urgent || mBatchSize >= MAX_BATCH_EVENTS) {
+                flushEvents();
+            } else if (!mBatchScheduled) {
+                mBatchScheduled = true;
+                mBatchHandler.postDelayed(mFlushBatch, mBatchWindow);
+            }
+        }
+    }
+
+    /**
+     * Emits everything queued as one "batch" event. The emit happens under the lock so that batches reach JS in
+     * the order they were filled.
+     */
+    private void flushEvents() {
+        synchronized (mBatchLock) {
+            if (mBatchScheduled) {
+                mBatchHandler.removeCallbacks(mFlushBatch);
+                mBatchScheduled = false;
+            }
+            if (mBatch == null) {
+                return;
+            }
+
+            WritableMap params = Arguments.createMap();
+            params.putArray("events", mBatch);
+            mBatch = null;
+            mBatchSize = 0;
+            socketManager.getMetrics().batchesEmitted.incrementAndGet();
+            emit("batch", params);
+        }
+    }
+
+    private void emit(String eventName, WritableMap params) {
         mReactContext
             .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
             .emit(eventName, params);
     }
 
+    /**
+     * Collects the events of all sockets for windowMs milliseconds and emits them as one "batch" event, or emits
+     * every event on its own again when it is 0. Errors and closes flush the batch straight away.
+     */
+    @ReactMethod
+    public void setEventBatching(final Integer windowMs) {
+        synchronized (mBatchLock) {
+            // flush before the window reads 0, so no event goes out directly ahead of the queued ones
+            if (windowMs <= 0) {
+                flushEvents();
+            }
+            mBatchWindow = Math.max(0, windowMs);
+        }
+    }
+
     @ReactMethod
     public void listen(final Integer cId, final String host, final Integer port) {
-        new GuardedAsyncTask<Void, Void>(getReactApplicationContext()) {
+        execute(cId, new GuardedRunnable(getReactApplicationContext()) {
             @Override
-            protected void doInBackgroundGuarded(Void... params) {
-                try {
-                    socketManager.listen(cId, host, port);
-                } catch (UnknownHostException uhe) {
-                    FLog.e(TAG, "listen", uhe);
-                    onError(cId, uhe.getMessage());
-                } catch (IOException ioe) {
-                    FLog.e(TAG, "listen", ioe);
-                    onError(cId, ioe.getMessage());
-                }
+            public void runGuarded() {
+                socketManager.listen(cId, host, port);
             }
-        }.execute();
+        });
+    }
+
+    /**
+     * Like listen, with server options: maxConnections, queueConnections and connectionBatchMs.
+     */
+    @ReactMethod
+    public void listenWithOptions(final Integer cId, final String host, final Integer port, final ReadableMap options) {
+        execute(cId, new GuardedRunnable(getReactApplicationContext()) {
+            @Override
+            public void runGuarded() {
+                socketManager.listen(cId, host, port, TcpSocketOptions.fromReadableMap(options));
+            }
+        });
     }
 
     @ReactMethod
     public void connect(final Integer cId, final @Nullable String host, final Integer port, final ReadableMap options) {
-        new GuardedAsyncTask<Void, Void>(getReactApplicationContext()) {
+        execute(cId, new GuardedRunnable(getReactApplicationContext()) {
             @Override
-            protected void doInBackgroundGuarded(Void... params) {
-                // NOTE : ignoring options for now, just use the available interface.
-                try {
-                    socketManager.connect(cId, host, port, false);
-                } catch (UnknownHostException uhe) {
-                    FLog.e(TAG, "connect", uhe);
-                    onError(cId, uhe.getMessage());
-                } catch (IOException ioe) {
-                    FLog.e(TAG, "connect", ioe);
-                    onError(cId, ioe.getMessage());
-                }
+            public void runGuarded() {
+                socketManager.connect(cId, host, port, false, TcpSocketOptions.fromReadableMap(options));
             }
-        }.execute();
+        });
     }
 
     @ReactMethod
     public void connectTls(final Integer cId, final @Nullable String host, final Integer port, final ReadableMap options) {
-        new GuardedAsyncTask<Void, Void>(getReactApplicationContext()) {
+        execute(cId, new GuardedRunnable(getReactApplicationContext()) {
             @Override
-            protected void doInBackgroundGuarded(Void... params) {
-                // NOTE : ignoring options for now, just use the available interface.
-                try {
-                    socketManager.connect(cId, host, port, true);
-                } catch (UnknownHostException uhe) {
-                    FLog.e(TAG, "connectTls", uhe);
-                    onError(cId, uhe.getMessage());
-                } catch (IOException ioe) {
-                    FLog.e(TAG, "connectTls", ioe);
-                    onError(cId, ioe.getMessage());
-                }
+            public void runGuarded() {
+                socketManager.connect(cId, host, port, true, TcpSocketOptions.fromReadableMap(options));
             }
-        }.execute();
+        });
     }
 
     @ReactMethod
     public void upgradeToSecure(final Integer cId, final String host, final Integer port, final Callback callback) {
-        new GuardedAsyncTask<Void, Void>(getReactApplicationContext()) {
+        execute(cId, new GuardedRunnable(getReactApplicationContext()) {
             @Override
-            protected void doInBackgroundGuarded(Void... params) {
+            public void runGuarded() {
                 socketManager.upgradeToSecure(cId, host, port, callback);
             }
-        }.execute();
+        });
     }
 
     @ReactMethod
     public void write(final Integer cId, final String base64String, final Callback callback) {
-        new GuardedAsyncTask<Void, Void>(getReactApplicationContext()) {
+        executeInline(cId, base64String.length(), new GuardedRunnable(getReactApplicationContext()) {
+            @Override
+            public void runGuarded() {
+                socketManager.write(cId, Base64.decode(base64String, Base64.NO_WRAP), callback);
+            }
+        });
+    }
+
+    /**
+     * Writes data passed as latin1 text, one char per byte, skipping the base64 round trip. Only the copy
+     * out of the string is left.
+     */
+    @ReactMethod
+    public void writeLatin1(final Integer cId, final String latin1String, final Callback callback) {
+        executeInline(cId, latin1String.length(), new GuardedRunnable(getReactApplicationContext()) {
+            @Override
+            public void runGuarded() {
+                socketManager.write(cId, latin1String.getBytes(LATIN1), callback);
+            }
+        });
+    }
+
+    /**
+     * Writes several chunks with one bridge call and one socket write. The callback runs once the whole batch
+     * has been handed to the socket.
+     */
+    @ReactMethod
+    public void writeBatch(final Integer cId, final ReadableArray chunks, final boolean latin1, final Callback callback) {
+        // only batches of a single small chunk are cheap enough to size up front
+        int size = chunks.size() == 1 ? chunks.getString(0).length() : Integer.MAX_VALUE;
+        executeInline(cId, size, new GuardedRunnable(getReactApplicationContext()) {
+            @Override
+            public void runGuarded() {
+                List<byte[]> data = new ArrayList<byte[]>(chunks.size());
+                for (int i = 0; i < chunks.size(); i++) {
+                    String chunk = chunks.getString(i);
+                    data.add(latin1 ? chunk.getBytes(LATIN1) : Base64.decode(chunk, Base64.NO_WRAP));
+                }
+                socketManager.write(cId, data, callback);
+            }
+        });
+    }
+
+    /**
+     * Streams part of a local file to the socket without it crossing the bridge. The callback gets an error
+     * message, or nothing once the socket has taken the whole range.
+     *
+     * @param length bytes to send, or -1 for the rest of the file
+     */
+    @ReactMethod
+    public void sendFile(final Integer cId, final String path, final Double offset, final Double length,
+            final Callback callback) {
+        execute(cId, new GuardedRunnable(getReactApplicationContext()) {
+            @Override
+            public void runGuarded() {
+                socketManager.sendFile(cId, path, offset.longValue(), length.longValue(), callback);
+            }
+        });
+    }
+
+    /**
+     * Writes the socket's next inbound bytes to a local file instead of sending them as data events. Progress
+     * and completion are reported as events.
+     *
+     * @param length bytes to write to the file, or -1 for everything until the peer ends the stream
+     */
+    @ReactMethod
+    public void receiveToFile(final Integer cId, final String path, final Double length, final boolean append) {
+        execute(cId, new GuardedRunnable(getReactApplicationContext()) {
+            @Override
+            public void runGuarded() {
+                socketManager.receiveToFile(cId, path, length.longValue(), append);
+            }
+        });
+    }
+
+    /**
+     * Switches the socket to message events split by the framing in options, or back to data events when it has
+     * none. Sockets can also be given a framing when they connect.
+     */
+    @ReactMethod
+    public void setFraming(final Integer cId, final ReadableMap options) {
+        execute(cId, new GuardedRunnable(getReactApplicationContext()) {
+            @Override
+            public void runGuarded() {
+                try {
+                    socketManager.setFraming(cId, TcpSocketOptions.fromReadableMap(options));
+                } catch (IllegalArgumentException iae) {
+                    onError(cId, "invalid framing: " + iae.getMessage());
+                }
+            }
+        });
+    }
+
+    @ReactMethod
+    public void configureDnsCache(final Integer ttl, final Integer negativeTtl) {
+        socketManager.configureDnsCache(ttl, negativeTtl);
+    }
+
+    /**
+     * Sizes the pool inbound data is copied into before it is encoded for js.
+     */
+    @ReactMethod
+    public void configureBufferPool(final Integer bufferSize, final Integer maxBuffers) {
+        socketManager.configureBufferPool(bufferSize, maxBuffers);
+    }
+
+    @ReactMethod
+    public void getBufferPoolStats(final Callback callback) {
+        BufferPool pool = socketManager.getBufferPool();
+        WritableMap stats = Arguments.createMap();
+        stats.putInt("bufferSize", pool.getBufferSize());
+        stats.putInt("maxBuffers", pool.getMaxBuffers());
+        stats.putDouble("hits", pool.getHits());
+        stats.putDouble("misses", pool.getMisses());
+        callback.invoke(stats);
+    }
+
+    @ReactMethod
+    public void getExecutorStats(final Callback callback) {
+        WritableMap stats = Arguments.createMap();
+        stats.putInt("queueDepth", mExecutor.getQueueDepth());
+        stats.putInt("activeLanes", mExecutor.getActiveLanes());
+        stats.putDouble("completed", mExecutor.getCompletedCount());
+        callback.invoke(stats);
+    }
+
+    /**
+     * Calls back with the counters of one socket, or null if it is not open, or with module wide totals when no
+     * id is given.
+     */
+    @ReactMethod
+    public void getStats(final Dynamic cId, final Callback callback) {
+        if (cId == null || cId.isNull()) {
+            callback.invoke(createGlobalStats(mGetStatsAcceptRate));
+            return;
+        }
+
+        Integer id = cId.asInt();
+        SocketStats stats = socketManager.getSocketStats(id);
+        if (stats == null) {
+            callback.invoke((Object) null);
+            return;
+        }
+
+        WritableMap map = Arguments.createMap();
+        map.putInt("id", id);
+        map.putDouble("bytesIn", stats.bytesIn);
+        map.putDouble("chunksIn", stats.chunksIn);
+        map.putDouble("dataEvents", stats.dataEvents);
+        map.putDouble("compressedBytesOut", stats.compressedBytesOut);
+        map.putDouble("bytesOut", socketManager.getBytesOut(id));
+        map.putDouble("chunksOut", socketManager.getChunksOut(id));
+        map.putDouble("bufferSize", socketManager.getBufferSize(id));
+        map.putDouble("connectMs", stats.connectMs);
+        map.putDouble("handshakeMs", stats.handshakeMs);
+        map.putDouble("errors", stats.errors.get());
+        callback.invoke(map);
+    }
+
+    /**
+     * Emits a "stats" event with the module wide totals every interval milliseconds, or stops when it is 0.
+     */
+    @ReactMethod
+    public void setStatsInterval(final Integer interval) {
+        socketManager.setStatsInterval(interval);
+    }
+
+    private WritableMap createGlobalStats(SocketMetrics.RateReader acceptRate) {
+        SocketMetrics metrics = socketManager.getMetrics();
+        WritableMap map = Arguments.createMap();
+        map.putInt("openSockets", socketManager.getOpenSocketCount());
+        map.putInt("listeningSockets", socketManager.getListeningSocketCount());
+        map.putInt("pooledSockets", socketManager.getPooledSocketCount());
+        map.putDouble("bytesIn", metrics.bytesIn.get());
+        map.putDouble("bytesOut", metrics.bytesOut.get());
+        map.putDouble("eventsEmitted", metrics.eventsEmitted.get());
+        map.putDouble("batchesEmitted", metrics.batchesEmitted.get());
+        map.putDouble("connects", metrics.connects.get());
+        map.putDouble("connectFailures", metrics.connectFailures.get());
+        map.putDouble("accepted", metrics.accepted.get());
+        map.putDouble("shedConnections", metrics.shedConnections.get());
+        map.putDouble("acceptRate", metrics.takeAcceptRate(acceptRate));
+        map.putDouble("errors", metrics.errors.get());
+        map.putDouble("poolHits", metrics.poolHits.get());
+        map.putDouble("poolMisses", metrics.poolMisses.get());
+        map.putInt("queueDepth", mExecutor.getQueueDepth());
+        map.putMap("connectLatency", createHistogram(metrics.connectLatency));
+        map.putMap("handshakeLatency", createHistogram(metrics.handshakeLatency));
+        return map;
+    }
+
+    private static WritableMap createHistogram(SocketMetrics.Histogram histogram) {
+        WritableMap map = Arguments.createMap();
+        map.putDouble("count", histogram.getCount());
+        map.putDouble("sum", histogram.getSum());
+        map.putDouble("p50", histogram.getPercentile(0.5));
+        map.putDouble("p90", histogram.getPercentile(0.9));
+        map.putDouble("p99", histogram.getPercentile(0.99));
+
+        WritableArray buckets = Arguments.createArray();
+        for (int i = 0; i < SocketMetrics.Histogram.BUCKETS; i++) {
+            buckets.pushDouble(histogram.getBucket(i));
+        }
+        map.putArray("buckets", buckets);
+        return map;
+    }
+
+    /**
+     * Starts recording socket lifecycle events into a ring buffer of the given number of events, or stops when
+     * it is 0. Recorded events are kept after stopping until tracing is started again.
+     */
+    @ReactMethod
+    public void setTracing(final Integer capacity) {
+        if (capacity > 0) {
+            mTracer.start(capacity);
+        } else {
+            mTracer.stop();
+        }
+    }
+
+    /**
+     * Calls back with the recorded events as a Chrome trace event JSON string, which Perfetto can open.
+     */
+    @ReactMethod
+    public void getTrace(final Callback callback) {
+        callback.invoke(mTracer.export());
+    }
+
+    @ReactMethod
+    public void pause(final Integer cId) {
+        executeInline(cId, 0, new GuardedRunnable(getReactApplicationContext()) {
+            @Override
+            public void runGuarded() {
+                socketManager.pause(cId);
+            }
+        });
+    }
+
+    @ReactMethod
+    public void resume(final Integer cId) {
+        executeInline(cId, 0, new GuardedRunnable(getReactApplicationContext()) {
+            @Override
+            public void runGuarded() {
+                socketManager.resume(cId);
+            }
+        });
+    }
+
+    @ReactMethod
+    public void setNoDelay(final Integer cId, final boolean noDelay) {
+        executeInline(cId, 0, new GuardedRunnable(getReactApplicationContext()) {
+            @Override
+            public void runGuarded() {
+                try {
+                    socketManager.setNoDelay(cId, noDelay);
+                } catch (SocketException se) {
+                    FLog.e(TAG, "setNoDelay", se);
+                    onError(cId, se.getMessage());
+                }
+            }
+        });
+    }
+
+    @ReactMethod
+    public void setKeepAlive(final Integer cId, final boolean enable, final Integer initialDelay) {
+        executeInline(cId, 0, new GuardedRunnable(getReactApplicationContext()) {
             @Override
-            protected void doInBackgroundGuarded(Void... params) {
-                socketManager.write(cId, Base64.decode(base64String, Base64.NO_WRAP));
-                if (callback != null) {
-                    callback.invoke();
+            public void runGuarded() {
+                try {
+                    socketManager.setKeepAlive(cId, enable);
+                } catch (SocketException se) {
+                    FLog.e(TAG, "setKeepAlive", se);
+                    onError(cId, se.getMessage());
                 }
             }
-        }.execute();
+        });
+    }
+
+    @ReactMethod
+    public void setTimeout(final Integer cId, final Integer timeout) {
+        executeInline(cId, 0, new GuardedRunnable(getReactApplicationContext()) {
+            @Override
+            public void runGuarded() {
+                socketManager.setTimeout(cId, timeout);
+            }
+        });
+    }
+
+    /**
+     * Called by js as it consumes data events, for sockets opened with a readBudget.
+     */
+    @ReactMethod
+    public void ackData(final Integer cId, final Integer byteCount) {
+        executeInline(cId, 0, new GuardedRunnable(getReactApplicationContext()) {
+            @Override
+            public void runGuarded() {
+                socketManager.acknowledge(cId, byteCount);
+            }
+        });
     }
 
     @ReactMethod
     public void end(final Integer cId) {
-        new GuardedAsyncTask<Void, Void>(getReactApplicationContext()) {
+        execute(cId, new GuardedRunnable(getReactApplicationContext()) {
             @Override
-            protected void doInBackgroundGuarded(Void... params) {
-                socketManager.close(cId);
+            public void runGuarded() {
+                socketManager.end(cId);
             }
-        }.execute();
+        });
     }
 
     @ReactMethod
     public void destroy(final Integer cId) {
-        end(cId);
+        execute(cId, new GuardedRunnable(getReactApplicationContext()) {
+            @Override
+            public void runGuarded() {
+                socketManager.destroy(cId);
+            }
+        });
+    }
+
+    /**
+     * Closes every socket and server, half closing first and resetting whatever is still open after timeoutMs,
+     * and calls back once all of them are closed.
+     */
+    @ReactMethod
+    public void closeAll(final Integer timeoutMs, final Callback callback) {
+        socketManager.closeAllSockets(timeoutMs, new Runnable() {
+            @Override
+            public void run() {
+                callback.invoke();
+            }
+        });
     }
 
     /** TcpSocketListener */
@@ -186,7 +625,29 @@ public final class TcpSockets extends ReactContextBaseJavaModule implements TcpS
         }
         WritableMap eventParams = Arguments.createMap();
         eventParams.putInt("id", serverId);
+        eventParams.putMap("info", createConnectionInfo(clientId, socketAddress));
+
+        sendEvent("connection", eventParams);
+    }
+
+    @Override
+    public void onConnections(Integer serverId, List<Integer> clientIds, List<InetSocketAddress> socketAddresses) {
+        if (mShuttingDown) {
+            return;
+        }
+        WritableMap eventParams = Arguments.createMap();
+        eventParams.putInt("id", serverId);
+
+        WritableArray infos = Arguments.createArray();
+        for (int i = 0; i < clientIds.size(); i++) {
+            infos.pushMap(createConnectionInfo(clientIds.get(i), socketAddresses.get(i)));
+        }
+        eventParams.putArray("infos", infos);
 
+        sendEvent("connections", eventParams);
+    }
+
+    private static WritableMap createConnectionInfo(Integer clientId, InetSocketAddress socketAddress) {
         WritableMap infoParams = Arguments.createMap();
         infoParams.putInt("id", clientId);
 
@@ -198,9 +659,7 @@ public final class TcpSockets extends ReactContextBaseJavaModule implements TcpS
         addressParams.putString("family", address instanceof Inet6Address ? "IPv6" : "IPv4");
 
         infoParams.putMap("address", addressParams);
-        eventParams.putMap("info", infoParams);
-
-        sendEvent("connection", eventParams);
+        return infoParams;
     }
 
     @Override
@@ -235,17 +694,134 @@ public final class TcpSockets extends ReactContextBaseJavaModule implements TcpS
     }
 
     @Override
-    public void onData(Integer id, byte[] data) {
+    public void onData(Integer id, byte[] data, int length, boolean latin1) {
         if (mShuttingDown) {
             return;
         }
         WritableMap eventParams = Arguments.createMap();
         eventParams.putInt("id", id);
-        eventParams.putString("data", Base64.encodeToString(data, Base64.NO_WRAP));
+        eventParams.putString("data", latin1 ? new String(data, 0, length, LATIN1) : encodeBase64(data, length));
 
         sendEvent("data", eventParams);
     }
 
+    @Override
+    public void onMessage(Integer id, byte[] data, int length, boolean latin1) {
+        if (mShuttingDown) {
+            return;
+        }
+        WritableMap eventParams = Arguments.createMap();
+        eventParams.putInt("id", id);
+        eventParams.putString("data", latin1 ? new String(data, 0, length, LATIN1) : encodeBase64(data, length));
+
+        sendEvent("message", eventParams);
+    }
+
+    /**
+     * Same output as {@link Base64#encodeToString} with NO_WRAP, but encodes into a reused char buffer so the
+     * only allocation is the resulting String.
+     */
+    static String encodeBase64(byte[] data, int length) {
+        int encodedLength = (length + 2) / 3 * 4;
+        char[] out;
+        if (encodedLength > MAX_CACHED_ENCODE_CHARS) {
+            out = new char[encodedLength];
+        } else {
+            out = sEncodeBuffer.get();
+            if (out == null || out.length < encodedLength) {
+                out = new char[Math.max(encodedLength, 4096)];
+                sEncodeBuffer.set(out);
+            }
+        }
+
+        int i = 0;
+        int o = 0;
+        for (int end = length - length % 3; i < end; i += 3) {
+            int bits = (data[i] & 0xff) << 16 | (data[i + 1] & 0xff) << 8 | (data[i + 2] & 0xff);
+            out[o++] = BASE64_ALPHABET[bits >>> 18];
+            out[o++] = BASE64_ALPHABET[(bits >>> 12) & 0x3f];
+            out[o++] = BASE64_ALPHABET[(bits >>> 6) & 0x3f];
+            out[o++] = BASE64_ALPHABET[bits & 0x3f];
+        }
+        if (i < length) {
+            int bits = (data[i] & 0xff) << 16 | (i + 1 < length ? (data[i + 1] & 0xff) << 8 : 0);
+            out[o++] = BASE64_ALPHABET[bits >>> 18];
+            out[o++] = BASE64_ALPHABET[(bits >>> 12) & 0x3f];
+            out[o++] = i + 1 < length ? BASE64_ALPHABET[(bits >>> 6) & 0x3f] : '=';
+            out[o++] = '=';
+        }
+        return new String(out, 0, o);
+    }
+
+    @Override
+    public void onFileProgress(Integer id, long bytesSent, long bytesTotal) {
+        if (mShuttingDown) {
+            return;
+        }
+        WritableMap eventParams = Arguments.createMap();
+        eventParams.putInt("id", id);
+        eventParams.putDouble("bytesSent", bytesSent);
+        eventParams.putDouble("bytesTotal", bytesTotal);
+
+        sendEvent("fileProgress", eventParams);
+    }
+
+    @Override
+    public void onReceiveProgress(Integer id, long bytesReceived, long bytesTotal) {
+        if (mShuttingDown) {
+            return;
+        }
+        WritableMap eventParams = Arguments.createMap();
+        eventParams.putInt("id", id);
+        eventParams.putDouble("bytesReceived", bytesReceived);
+        eventParams.putDouble("bytesTotal", bytesTotal);
+
+        sendEvent("receiveProgress", eventParams);
+    }
+
+    @Override
+    public void onReceiveComplete(Integer id, long bytesReceived, @Nullable String error) {
+        if (mShuttingDown) {
+            return;
+        }
+        WritableMap eventParams = Arguments.createMap();
+        eventParams.putInt("id", id);
+        eventParams.putDouble("bytesReceived", bytesReceived);
+        eventParams.putString("error", error);
+
+        sendEvent("receiveComplete", eventParams);
+    }
+
+    @Override
+    public void onTimeout(Integer id) {
+        if (mShuttingDown) {
+            return;
+        }
+        WritableMap eventParams = Arguments.createMap();
+        eventParams.putInt("id", id);
+
+        sendEvent("timeout", eventParams);
+    }
+
+    @Override
+    public void onEnd(Integer id) {
+        if (mShuttingDown) {
+            return;
+        }
+        WritableMap eventParams = Arguments.createMap();
+        eventParams.putInt("id", id);
+
+        sendEvent("end", eventParams);
+    }
+
+    @Override
+    public void onStats() {
+        if (mShuttingDown) {
+            return;
+        }
+        sendEvent("stats", createGlobalStats(mStatsEventAcceptRate));
+    }
+
     @Override
     public void onClose(Integer id, String error) {
         if (mShuttingDown) {
@@ -267,6 +843,11 @@ public final class TcpSockets extends ReactContextBaseJavaModule implements TcpS
         if (mShuttingDown) {
             return;
         }
+        socketManager.getMetrics().errors.incrementAndGet();
+        SocketStats stats = socketManager.getSocketStats(id);
+        if (stats != null) {
+            stats.errors.incrementAndGet();
+        }
 
         WritableMap eventParams = Arguments.createMap();
         eventParams.putInt("id", id);
@@ -17,13 +17,26 @@ import java.util.List;
 
 
 public final class TcpSocketsModule implements ReactPackage {
+    private final int mReactorCount;
+
+    public TcpSocketsModule() {
+        this(0);
+    }
+
+    /**
+     * @param reactorCount number of private reactor threads to spread sockets over, instead of sharing
+     *                     AndroidAsync's default reactor with the rest of the app
+     */
+    public TcpSocketsModule(int reactorCount) {
+        mReactorCount = reactorCount;
+    }
 
     @Override
     public List<NativeModule> createNativeModules(
             ReactApplicationContext reactContext) {
         List<NativeModule> modules = new ArrayList<NativeModule>();
 
-        modules.add(new TcpSockets(reactContext));
+        modules.add(new TcpSockets(reactContext, mReactorCount));
 
         return modules;
     }
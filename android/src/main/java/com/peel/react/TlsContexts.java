@@ -0,0 +1,109 @@
+package com.peel.react;
+
+import android.os.Build;
+
+import java.security.cert.X509Certificate;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+
+/**
+ * Process-wide SSLContexts for {@link TcpSocketManager}, one per trust configuration.
+ *
+ * Each context is built once, on first use, and shared by every connection afterwards. Sharing a context also
+ * shares its client session cache, so engines created with the peer's host and port can resume a previous
+ * session instead of running a full handshake.
+ */
+final class TlsContexts {
+    static final TrustManager[] TRUST_ALL_MANAGERS = new TrustManager[] { new X509TrustManager() {
+        public X509Certificate[] getAcceptedIssuers() {
+            return new X509Certificate[0];
+        }
+
+        public void checkClientTrusted(X509Certificate[] certs, String authType) {
+        }
+
+        public void checkServerTrusted(X509Certificate[] certs, String authType) {
+        }
+    } };
+
+    static final HostnameVerifier TRUST_ALL_VERIFIER = new HostnameVerifier() {
+        @Override
+        public boolean verify(String s, SSLSession sslSession) {
+            return true;
+        }
+    };
+
+    // built on first use. A failed build isn't cached, so the next connection tries again
+    private static SSLContext sTrustAllContext;
+    private static SSLContext sVerifyingContext;
+
+    private TlsContexts() {
+    }
+
+    /**
+     * @param rejectUnauthorized whether the peer's certificate chain and host name are verified
+     * @throws IllegalStateException if the context can't be created
+     */
+    static synchronized SSLContext get(boolean rejectUnauthorized) {
+        if (rejectUnauthorized) {
+            if (sVerifyingContext == null) {
+                sVerifyingContext = createVerifyingContext();
+            }
+            return sVerifyingContext;
+        }
+        if (sTrustAllContext == null) {
+            sTrustAllContext = createTrustAllContext();
+        }
+        return sTrustAllContext;
+    }
+
+    private static SSLContext createTrustAllContext() {
+        try {
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(null, TRUST_ALL_MANAGERS, null);
+            return context;
+        } catch (Exception ex) {
+            throw new IllegalStateException("unable to create tls context", ex);
+        }
+    }
+
+    private static SSLContext createVerifyingContext() {
+        try {
+            // critical extension 2.5.29.15 is implemented improperly prior to 4.0.3.
+            // https://code.google.com/p/android/issues/detail?id=9307
+            // https://groups.google.com/forum/?fromgroups=#!topic/netty/UCfqPPk5O4s
+            // certs that use this extension will throw in Cipher.java.
+            // fallback is to use a custom SSLContext, and hack around the x509 extension.
+            if (Build.VERSION.SDK_INT <= Build.VERSION_CODES.ICE_CREAM_SANDWICH_MR1)
+                throw new Exception();
+            return SSLContext.getInstance("Default");
+        } catch (Exception ex) {
+            try {
+                SSLContext context = SSLContext.getInstance("TLS");
+                TrustManager[] trustAllCerts = new TrustManager[] { new X509TrustManager() {
+                    public X509Certificate[] getAcceptedIssuers() {
+                        return new X509Certificate[0];
+                    }
+
+                    public void checkClientTrusted(X509Certificate[] certs, String authType) {
+                    }
+
+                    public void checkServerTrusted(X509Certificate[] certs, String authType) {
+                        for (X509Certificate cert : certs) {
+                            if (cert != null && cert.getCriticalExtensionOIDs() != null)
+                                cert.getCriticalExtensionOIDs().remove("2.5.29.15");
+                        }
+                    }
+                } };
+                context.init(null, trustAllCerts, null);
+                return context;
+            } catch (Exception ex2) {
+                throw new IllegalStateException("unable to create tls context", ex2);
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.peel.react;
+
+import androidx.annotation.Nullable;
+
+import com.facebook.common.logging.FLog;
+import com.koushikdutta.async.AsyncSSLSocketWrapper;
+import com.koushikdutta.async.AsyncSocket;
+import com.koushikdutta.async.BufferedDataSink;
+import com.koushikdutta.async.Util;
+
+import java.lang.reflect.Field;
+
+/**
+ * What AsyncSSLSocketWrapper still has to send for a socket.
+ *
+ * The wrapper takes plaintext as soon as it has encrypted it, and keeps the records the network socket couldn't
+ * take yet in a BufferedDataSink it doesn't expose. Until that sink is empty, writes haven't left the device.
+ * It only takes more plaintext once the sink is empty, and calls its writeable callback when it empties. The
+ * wrapper has no public way to ask for the sink, so it is read reflectively: the AndroidAsync version is pinned
+ * in build.gradle and consumer-rules.pro keeps the field in minified apps. If it still can't be found, every
+ * sink counts as empty, as it did before.
+ */
+final class TlsSink {
+    private static final String TAG = "TlsSink";
+
+    @Nullable
+    private static final Field SINK = findSink();
+
+    private TlsSink() {
+    }
+
+    @Nullable
+    private static Field findSink() {
+        try {
+            Field field = AsyncSSLSocketWrapper.class.getDeclaredField("mSink");
+            field.setAccessible(true);
+            return field;
+        } catch (Exception e) {
+            FLog.w(TAG, "unable to find the tls write buffer, writes count as sent once encrypted", e);
+            return null;
+        }
+    }
+
+    /**
+     * @return encrypted bytes the socket's tls wrapper holds back, or 0 for sockets without tls
+     */
+    static int remaining(AsyncSocket socket) {
+        if (SINK == null) {
+            return 0;
+        }
+        AsyncSSLSocketWrapper wrapper = Util.getWrappedSocket(socket, AsyncSSLSocketWrapper.class);
+        if (wrapper == null) {
+            return 0;
+        }
+        try {
+            BufferedDataSink sink = (BufferedDataSink) SINK.get(wrapper);
+            return sink != null ? sink.remaining() : 0;
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+}